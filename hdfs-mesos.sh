@@ -1,5 +1,5 @@
 #!/bin/sh
-jar='hdfs-mesos*.jar'
+jar='hdfs-mesos-[0-9]*.jar'
 
 check_jar() {
     jars=$(find . -maxdepth 1 -name "$jar" | wc -l)
@@ -9,6 +9,9 @@ import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
 import java.util.*;
 
 public class Cli {
@@ -148,6 +151,24 @@ public class Cli {
         return result;
     }
 
+    // opens long-running response (event stream), read until closed by server
+    static InputStream openStream(String uri, Map<String, String> params) throws IOException {
+        String query = "";
+        for (String name : params.keySet())
+            query += (query.isEmpty() ? "?" : "&") + name + "=" + URLEncoder.encode(params.get(name), "utf-8");
+
+        String url = api + (api.endsWith("/") ? "" : "/") + "api" + uri + query;
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+
+        if (connection.getResponseCode() != 200) {
+            IOException e = new IOException("Error " + connection.getResponseCode() + ": " + connection.getResponseMessage());
+            connection.disconnect();
+            throw e;
+        }
+
+        return connection.getInputStream();
+    }
+
     static void printLine() { printLine(""); }
 
     static void printLine(String s) { printLine(s, 0); }
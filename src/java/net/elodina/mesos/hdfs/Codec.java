@@ -0,0 +1,220 @@
+package net.elodina.mesos.hdfs;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// encoding of persisted state: json (text, default) or binary (protobuf wire format)
+public abstract class Codec {
+    public static final Codec JSON = new Json();
+    public static final Codec BINARY = new Binary();
+
+    // binary data (values, journal records) starts with magic byte & format version, json with '{'
+    static final byte[] MAGIC = {(byte) 0xC5, 1};
+
+    // codec of encoded data, so stores written by either codec remain readable; empty data is json (nothing to read)
+    public static Codec of(byte[] bytes) {
+        if (bytes.length == 0 || bytes[0] == '{') return JSON;
+        if (Binary.hasMagic(bytes, 0)) return BINARY;
+        throw new IllegalArgumentException("unknown encoding of data");
+    }
+
+    public abstract byte[] encode(Node node);
+    public abstract Node decodeNode(byte[] bytes);
+
+    public abstract byte[] encode(State state);
+    public abstract State decodeState(byte[] bytes);
+
+    public abstract void writeRecord(OutputStream out, State state) throws IOException;
+    // reads records until end of data or torn (incomplete) record
+    public abstract Records readRecords(byte[] bytes);
+
+    // snapshot, journal record or metadata
+    public static class State {
+        public String frameworkId;
+        public List<Node> nodes = new ArrayList<>();
+        public List<String> removed = new ArrayList<>();
+        // ordered node ids, null if not stored
+        public List<String> nodeIds;
+        // snapshot generation journal record belongs to, 0 - not stored
+        public long generation;
+
+        public State() {}
+        public State(String frameworkId, List<Node> nodes) { this.frameworkId = frameworkId; this.nodes = nodes; }
+    }
+
+    public static class Records extends ArrayList<State> {
+        private static final long serialVersionUID = 1L;
+        public boolean torn;
+    }
+
+    private static class Json extends Codec {
+        private static final Charset UTF8 = Charset.forName("utf-8");
+
+        public byte[] encode(Node node) { return ("" + node.toJson()).getBytes(UTF8); }
+        public Node decodeNode(byte[] bytes) { return new Node(parse(new String(bytes, UTF8))); }
+
+        public byte[] encode(State state) { return ("" + toJson(state)).getBytes(UTF8); }
+        public State decodeState(byte[] bytes) { return fromJson(parse(new String(bytes, UTF8))); }
+
+        public void writeRecord(OutputStream out, State state) throws IOException { out.write((toJson(state) + "\n").getBytes(UTF8)); }
+
+        public Records readRecords(byte[] bytes) {
+            Records records = new Records();
+
+            for (String line : new String(bytes, UTF8).split("\n")) {
+                if (line.isEmpty()) continue;
+
+                try { records.add(fromJson((JSONObject) new JSONParser().parse(line))); }
+                catch (ParseException e) { records.torn = true; break; }
+            }
+
+            return records;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static JSONObject toJson(State state) {
+            JSONObject json = new JSONObject();
+            if (state.frameworkId != null) json.put("frameworkId", state.frameworkId);
+
+            JSONArray nodesJson = new JSONArray();
+            for (Node node : state.nodes) nodesJson.add(node.toJson());
+            if (!nodesJson.isEmpty()) json.put("nodes", nodesJson);
+
+            if (!state.removed.isEmpty()) {
+                JSONArray removedJson = new JSONArray();
+                removedJson.addAll(state.removed);
+                json.put("removed", removedJson);
+            }
+
+            if (state.nodeIds != null) {
+                JSONArray idsJson = new JSONArray();
+                idsJson.addAll(state.nodeIds);
+                json.put("nodeIds", idsJson);
+            }
+
+            if (state.generation != 0) json.put("generation", state.generation);
+            return json;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static State fromJson(JSONObject json) {
+            State state = new State();
+            state.frameworkId = (String) json.get("frameworkId");
+            if (json.containsKey("nodes")) state.nodes = Node.fromJsonArray((JSONArray) json.get("nodes"));
+            if (json.containsKey("removed")) state.removed = new ArrayList<>((List<String>) json.get("removed"));
+            if (json.containsKey("nodeIds")) state.nodeIds = new ArrayList<>((List<String>) json.get("nodeIds"));
+            if (json.containsKey("generation")) state.generation = ((Number) json.get("generation")).longValue();
+            return state;
+        }
+
+        private static JSONObject parse(String s) {
+            try { return (JSONObject) new JSONParser().parse(s); }
+            catch (ParseException e) { throw new IllegalArgumentException("invalid json", e); }
+        }
+    }
+
+    private static class Binary extends Codec {
+        public byte[] encode(Node node) { return withMagic(node.toBytes()); }
+        public Node decodeNode(byte[] bytes) { return new Node(withoutMagic(bytes)); }
+
+        public byte[] encode(State state) { return withMagic(message(state)); }
+
+        private static byte[] message(final State state) {
+            return Proto.bytes(new Proto.Writer() {
+                public void write(CodedOutputStream out) throws IOException {
+                    Proto.writeString(out, 1, state.frameworkId);
+                    for (Node node : state.nodes) Proto.writeMessage(out, 2, node.toBytes());
+                    for (String id : state.removed) out.writeString(3, id);
+                    if (state.nodeIds != null) for (String id : state.nodeIds) out.writeString(4, id);
+                    if (state.generation != 0) out.writeInt64(5, state.generation);
+                }
+            });
+        }
+
+        public State decodeState(byte[] bytes) { return state(withoutMagic(bytes)); }
+
+        private static State state(byte[] bytes) {
+            final State state = new State();
+            state.nodeIds = new ArrayList<>();
+
+            Proto.read(bytes, new Proto.Reader() {
+                public boolean read(int field, CodedInputStream in) throws IOException {
+                    switch (field) {
+                        case 1: state.frameworkId = in.readString(); return true;
+                        case 2: state.nodes.add(new Node(Proto.readMessage(in))); return true;
+                        case 3: state.removed.add(in.readString()); return true;
+                        case 4: state.nodeIds.add(in.readString()); return true;
+                        case 5: state.generation = in.readInt64(); return true;
+                        default: return false;
+                    }
+                }
+            });
+
+            return state;
+        }
+
+        // record: magic + varint length + state
+        public void writeRecord(OutputStream out, State state) throws IOException {
+            byte[] bytes = message(state);
+
+            CodedOutputStream coded = CodedOutputStream.newInstance(out);
+            coded.writeRawBytes(MAGIC);
+            coded.writeRawVarint32(bytes.length);
+            coded.writeRawBytes(bytes);
+            coded.flush();
+        }
+
+        public Records readRecords(byte[] bytes) {
+            Records records = new Records();
+            CodedInputStream in = CodedInputStream.newInstance(bytes);
+
+            try {
+                while (!in.isAtEnd()) {
+                    if (!hasMagic(bytes, in.getTotalBytesRead())) { records.torn = true; break; }
+                    in.skipRawBytes(MAGIC.length);
+
+                    int length = in.readRawVarint32();
+                    if (length < 0 || length > bytes.length - in.getTotalBytesRead()) { records.torn = true; break; }
+
+                    int offset = in.getTotalBytesRead();
+                    records.add(state(Arrays.copyOfRange(bytes, offset, offset + length)));
+                    in.skipRawBytes(length);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                records.torn = true;
+            }
+
+            return records;
+        }
+
+        private static boolean hasMagic(byte[] bytes, int offset) {
+            if (bytes.length - offset < MAGIC.length) return false;
+
+            for (int i = 0; i < MAGIC.length; i++)
+                if (bytes[offset + i] != MAGIC[i]) return false;
+            return true;
+        }
+
+        private static byte[] withMagic(byte[] bytes) {
+            byte[] result = Arrays.copyOf(MAGIC, MAGIC.length + bytes.length);
+            System.arraycopy(bytes, 0, result, MAGIC.length, bytes.length);
+            return result;
+        }
+
+        private static byte[] withoutMagic(byte[] bytes) {
+            if (!hasMagic(bytes, 0)) throw new IllegalArgumentException("not binary encoded data");
+            return Arrays.copyOfRange(bytes, MAGIC.length, bytes.length);
+        }
+    }
+}
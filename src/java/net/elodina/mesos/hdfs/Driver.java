@@ -0,0 +1,127 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.api.Cred;
+import net.elodina.mesos.api.Framework;
+import net.elodina.mesos.api.Scheduler;
+import net.elodina.mesos.api.Task;
+import net.elodina.mesos.api.driver.SchedulerDriver;
+import net.elodina.mesos.api.driver.SchedulerDriverV0;
+import net.elodina.mesos.api.driver.SchedulerDriverV1;
+import net.elodina.mesos.util.Period;
+import org.apache.log4j.Logger;
+import org.apache.mesos.MesosSchedulerDriver;
+import org.apache.mesos.Protos;
+import org.apache.mesos.v1.scheduler.Protos.Call;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// SchedulerDriver with operations that are not exposed by util-mesos drivers
+public interface Driver extends SchedulerDriver {
+    void launchTasks(String offerId, List<Task> tasks);
+
+    void declineOffer(String offerId, Period refuse);
+
+    void suppressOffers();
+
+    void reviveOffers();
+
+    class V0 extends SchedulerDriverV0 implements Driver {
+        private static final Logger logger = Logger.getLogger(V0.class);
+
+        public V0(Scheduler scheduler, Framework framework, String master, Cred cred) { super(scheduler, framework, master, cred); }
+
+        @Override
+        public void launchTasks(String offerId, List<Task> tasks) {
+            List<Protos.TaskInfo> infos = new ArrayList<>();
+            for (Task task : tasks) infos.add(task.proto0());
+
+            logger.debug("[launchTasks] offerId:" + offerId + ", tasks:" + tasks);
+            driver().launchTasks(Collections.singletonList(offerId(offerId)), infos);
+        }
+
+        @Override
+        public void declineOffer(String offerId, Period refuse) {
+            logger.debug("[declineOffer] offerId:" + offerId + ", refuse:" + refuse);
+            driver().declineOffer(offerId(offerId), Protos.Filters.newBuilder().setRefuseSeconds(refuse.ms() / 1000d).build());
+        }
+
+        @Override
+        public void suppressOffers() {
+            logger.debug("[suppressOffers]");
+            driver().suppressOffers();
+        }
+
+        @Override
+        public void reviveOffers() {
+            logger.debug("[reviveOffers]");
+            driver().reviveOffers();
+        }
+
+        private static Protos.OfferID offerId(String id) { return Protos.OfferID.newBuilder().setValue(id).build(); }
+
+        private MesosSchedulerDriver driver() {
+            // native driver is private in SchedulerDriverV0
+            try {
+                Field field = SchedulerDriverV0.class.getDeclaredField("driver");
+                field.setAccessible(true);
+                return (MesosSchedulerDriver) field.get(this);
+            } catch (NoSuchFieldException | IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    class V1 extends SchedulerDriverV1 implements Driver {
+        public V1(Scheduler scheduler, Framework framework, String master) { super(scheduler, framework, master); }
+
+        @Override
+        public void launchTasks(String offerId, List<Task> tasks) {
+            org.apache.mesos.v1.Protos.Offer.Operation.Launch.Builder launch = org.apache.mesos.v1.Protos.Offer.Operation.Launch.newBuilder();
+            for (Task task : tasks) launch.addTaskInfos(task.proto1());
+
+            org.apache.mesos.v1.Protos.Offer.Operation.Builder operation = org.apache.mesos.v1.Protos.Offer.Operation.newBuilder()
+                .setType(org.apache.mesos.v1.Protos.Offer.Operation.Type.LAUNCH)
+                .setLaunch(launch);
+
+            Call.Accept.Builder accept = Call.Accept.newBuilder()
+                .addOfferIds(offerId(offerId))
+                .addOperations(operation);
+
+            logger.debug("[launchTasks] offerId:" + offerId + ", tasks:" + tasks);
+            sendCall(call(Call.Type.ACCEPT).setAccept(accept).build());
+        }
+
+        @Override
+        public void declineOffer(String offerId, Period refuse) {
+            Call.Decline.Builder decline = Call.Decline.newBuilder()
+                .addOfferIds(offerId(offerId))
+                .setFilters(org.apache.mesos.v1.Protos.Filters.newBuilder().setRefuseSeconds(refuse.ms() / 1000d));
+
+            logger.debug("[declineOffer] offerId:" + offerId + ", refuse:" + refuse);
+            sendCall(call(Call.Type.DECLINE).setDecline(decline).build());
+        }
+
+        @Override
+        public void suppressOffers() {
+            logger.debug("[suppressOffers]");
+            sendCall(call(Call.Type.SUPPRESS).build());
+        }
+
+        @Override
+        public void reviveOffers() {
+            logger.debug("[reviveOffers]");
+            sendCall(call(Call.Type.REVIVE).build());
+        }
+
+        private static org.apache.mesos.v1.Protos.OfferID offerId(String id) { return org.apache.mesos.v1.Protos.OfferID.newBuilder().setValue(id).build(); }
+
+        private Call.Builder call(Call.Type type) {
+            Call.Builder call = Call.newBuilder().setType(type);
+            if (Nodes.frameworkId != null) call.setFrameworkId(org.apache.mesos.v1.Protos.FrameworkID.newBuilder().setValue(Nodes.frameworkId));
+            return call;
+        }
+    }
+}
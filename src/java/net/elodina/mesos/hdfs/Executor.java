@@ -22,6 +22,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Files;
 import java.util.Arrays;
 
 public class Executor implements net.elodina.mesos.api.Executor {
@@ -34,14 +35,21 @@ public class Executor implements net.elodina.mesos.api.Executor {
     public static File hadoopDir;
     public static Version hadoopVersion;
 
+    // shared extracted hadoop, see HadoopCache
+    public static File hadoopCache;
+    public static String hadoopUrl;
+    public static String hadoopHash;
+    // per-task copy of hadoop conf, when hadoopDir is shared
+    public static File confDir;
+
     public static File dataDir;
     public static File javaHome;
 
     public static boolean hadoop1x() { return hadoopVersion.compareTo(new Version("2.0")) < 0; }
 
-    public static File hdfs() { return new File(hadoopDir, hadoop1x() ? "bin/hadoop" : "/bin/hdfs"); }
+    public static File hadoopConfDir() { return confDir != null ? confDir : distConfDir(); }
 
-    public static File hadoopConfDir() { return new File(hadoopDir, hadoop1x() ? "conf" : "etc/hadoop"); }
+    private static File distConfDir() { return new File(hadoopDir, hadoop1x() ? "conf" : "etc/hadoop"); }
 
     private ExecutorDriver driver;
     private String hostname;
@@ -145,18 +153,41 @@ public class Executor implements net.elodina.mesos.api.Executor {
     }
 
     static void initDirs() {
-        String hadoopMask = "hadoop-.*";
-        hadoopDir = IO.findDir(new File("."), hadoopMask);
-        if (hadoopDir == null) throw new IllegalStateException(hadoopMask + " not found in current dir");
+        if (hadoopCache != null)
+            try { hadoopDir = new HadoopCache(hadoopCache).resolve(hadoopHash, hadoopUrl); }
+            catch (IOException | InterruptedException e) { throw new IllegalStateException("Can't resolve cached hadoop", e); }
+        else {
+            String hadoopMask = "hadoop-.*";
+            hadoopDir = IO.findDir(new File("."), hadoopMask);
+            if (hadoopDir == null) throw new IllegalStateException(hadoopMask + " not found in current dir");
+        }
 
         int hyphenIdx = hadoopDir.getName().lastIndexOf("-");
         if (hyphenIdx == -1) throw new IllegalStateException("Can't extract version from " + hadoopDir);
         hadoopVersion = new Version(hadoopDir.getName().substring(hyphenIdx + 1));
 
+        // shared hadoop is read-only, conf files are written to sandbox copy
+        if (hadoopCache != null)
+            try { confDir = copyConfDir(new File("hadoop-conf")); }
+            catch (IOException e) { throw new IllegalStateException("Can't copy hadoop conf", e); }
+
         dataDir = new File(new File("."), "data");
         javaHome = findJavaHome();
 
-        logger.info("Resolved dirs:\nhadoopDir=" + hadoopDir + "\ndataDir=" + dataDir + "\njavaHome=" + javaHome);
+        logger.info("Resolved dirs:\nhadoopDir=" + hadoopDir + "\nconfDir=" + hadoopConfDir() + "\ndataDir=" + dataDir + "\njavaHome=" + javaHome);
+    }
+
+    static File copyConfDir(File dir) throws IOException {
+        if (dir.exists()) IO.delete(dir);
+        if (!dir.mkdirs()) throw new IOException("Can't create " + dir);
+
+        File[] files = distConfDir().listFiles();
+        if (files == null) throw new IOException("Can't list " + distConfDir());
+
+        for (File file : files)
+            if (file.isFile()) Files.copy(file.toPath(), new File(dir, file.getName()).toPath());
+
+        return dir;
     }
 
     static File findJavaHome() {
@@ -209,6 +240,9 @@ public class Executor implements net.elodina.mesos.api.Executor {
         OptionParser parser = new OptionParser();
         parser.accepts("debug", "Enable debug logging. Default - false").withRequiredArg().ofType(Boolean.class);
         parser.accepts("driver", "Mesos driver version (v0, v1). Default - " + driverVersion).withRequiredArg().ofType(String.class);
+        parser.accepts("hadoop-cache", "Dir of cached extracted hadoop. Default - none, hadoop is in current dir.").withRequiredArg().ofType(String.class);
+        parser.accepts("hadoop-url", "Url of hadoop archive, downloaded on cache miss.").withRequiredArg().ofType(String.class);
+        parser.accepts("hadoop-hash", "Sha256 of hadoop archive, key of cache entry.").withRequiredArg().ofType(String.class);
 
         boolean help = args.length > 0 && args[0].equals("help");
         if (help) {
@@ -238,8 +272,20 @@ public class Executor implements net.elodina.mesos.api.Executor {
             System.exit(1);
         }
 
+        String hadoopCache = (String) options.valueOf("hadoop-cache");
+        String hadoopUrl = (String) options.valueOf("hadoop-url");
+        String hadoopHash = (String) options.valueOf("hadoop-hash");
+        if (hadoopCache != null && (hadoopUrl == null || hadoopHash == null)) {
+            System.err.println("hadoop-url & hadoop-hash required for hadoop-cache");
+            System.exit(1);
+        }
+
         if (debug != null) Executor.debug = debug;
         if (driver != null) Executor.driverVersion = driver;
+
+        if (hadoopCache != null) Executor.hadoopCache = new File(hadoopCache);
+        Executor.hadoopUrl = hadoopUrl;
+        Executor.hadoopHash = hadoopHash;
     }
 
     static void initLogging() {
@@ -0,0 +1,93 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.IO;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// slave-local cache of extracted hadoop distributions: <dir>/<sha256>/hadoop-*;
+// shared by executors of the slave, entries are never modified after extraction
+public class HadoopCache {
+    private static final Logger logger = Logger.getLogger(HadoopCache.class);
+    // stalled download fails instead of hanging executor start
+    private static final int CONNECT_TIMEOUT_MS = 30 * 1000;
+    private static final int READ_TIMEOUT_MS = 60 * 1000;
+
+    private File dir;
+
+    public HadoopCache(File dir) { this.dir = dir; }
+
+    // returns extracted hadoop dir, downloading & extracting archive on miss
+    public File resolve(String hash, String url) throws IOException, InterruptedException {
+        File entry = new File(dir, hash);
+
+        File hadoopDir = find(entry);
+        if (hadoopDir != null) {
+            logger.info("Using cached hadoop " + hadoopDir);
+            return hadoopDir;
+        }
+
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) throw new IOException("Can't create " + dir);
+
+        // other executors of the slave may extract same archive
+        try (FileChannel channel = FileChannel.open(new File(dir, hash + ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                hadoopDir = find(entry);
+                if (hadoopDir != null) return hadoopDir;
+
+                extract(hash, url, entry);
+            } finally {
+                lock.release();
+            }
+        }
+
+        hadoopDir = find(entry);
+        if (hadoopDir == null) throw new IOException("hadoop-* not found in " + url);
+
+        logger.info("Cached hadoop " + hadoopDir);
+        return hadoopDir;
+    }
+
+    private void extract(String hash, String url, File entry) throws IOException, InterruptedException {
+        File tmpDir = new File(dir, hash + ".tmp");
+        if (tmpDir.exists()) IO.delete(tmpDir);
+        if (!tmpDir.mkdirs()) throw new IOException("Can't create " + tmpDir);
+
+        File archive = new File(tmpDir, "hadoop.tar.gz");
+        logger.info("Downloading " + url);
+        URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        IO.copyAndClose(connection.getInputStream(), new FileOutputStream(archive));
+
+        String actualHash = Hashes.sha256(archive);
+        if (!actualHash.equals(hash)) throw new IOException("Checksum mismatch for " + url + ": " + actualHash);
+
+        logger.info("Extracting " + archive);
+        Process process = new ProcessBuilder("tar", "-xzf", archive.getName())
+            .directory(tmpDir)
+            .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+
+        int code = process.waitFor();
+        if (code != 0) throw new IOException("Failed to extract " + archive + ": process exited with " + code);
+        if (!archive.delete()) throw new IOException("Failed to delete " + archive);
+
+        // entry appears complete or not at all; entry without hadoop dir is left by a failed run
+        if (entry.exists()) IO.delete(entry);
+        Files.move(tmpDir.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static File find(File entry) { return entry.isDirectory() ? IO.findDir(entry, "hadoop-.*") : null; }
+}
@@ -0,0 +1,144 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.Strings;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// java command of hdfs daemon, as built by bin/hdfs (2.x) or bin/hadoop (1.x) without running the scripts;
+// hadoop-env.sh is not sourced, its options should be passed via hadoopJvmOpts
+public class HadoopJvm {
+    static final String NAMENODE = "org.apache.hadoop.hdfs.server.namenode.NameNode";
+    static final String DATANODE = "org.apache.hadoop.hdfs.server.datanode.DataNode";
+
+    // hadoop dir (named by version) -> classpath entries of distribution
+    private static final Map<File, List<String>> classpaths = new ConcurrentHashMap<>();
+
+    private HadoopJvm() {}
+
+    public static String mainClass(Node.Type type) {
+        switch (type) {
+            case NAMENODE: return NAMENODE;
+            case DATANODE: return DATANODE;
+            default: throw new IllegalStateException("unsupported node type " + type);
+        }
+    }
+
+    public static List<String> command(Node.Type type, String jvmOpts, String... args) {
+        File hadoopDir = Executor.hadoopDir.getAbsoluteFile();
+        boolean hadoop1x = Executor.hadoop1x();
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add(new File(Executor.javaHome, "bin/java").getPath());
+
+        // defaults of scripts, overridable by jvmOpts
+        cmd.add("-Xmx1000m");
+        cmd.add("-Djava.net.preferIPv4Stack=true");
+        cmd.add("-Dhadoop.log.dir=" + logDir().getAbsolutePath());
+        cmd.add("-Dhadoop.log.file=hadoop.log");
+        cmd.add("-Dhadoop.home.dir=" + hadoopDir);
+        cmd.add("-Dhadoop.id.str=" + System.getProperty("user.name"));
+        cmd.add("-Dhadoop.root.logger=INFO,console");
+        cmd.add("-Dhadoop.policy.file=hadoop-policy.xml");
+        if (!hadoop1x) cmd.add("-Dhadoop.security.logger=INFO,NullAppender");
+
+        File nativeDir = nativeDir(hadoopDir, hadoop1x);
+        if (nativeDir.isDirectory()) cmd.add("-Djava.library.path=" + nativeDir);
+
+        if (jvmOpts != null && !jvmOpts.trim().isEmpty())
+            cmd.addAll(Arrays.asList(jvmOpts.trim().split("\\s+")));
+
+        cmd.add("-cp");
+        cmd.add(classpath(hadoopDir, hadoop1x, Executor.hadoopConfDir().getAbsoluteFile()));
+
+        cmd.add(mainClass(type));
+        cmd.addAll(Arrays.asList(args));
+        return cmd;
+    }
+
+    // sandbox logs when hadoop dir is shared
+    static File logDir() {
+        return Executor.confDir != null ? new File("logs") : new File(Executor.hadoopDir, "logs");
+    }
+
+    static String classpath(File hadoopDir, boolean hadoop1x, File confDir) {
+        List<String> entries = classpaths.get(hadoopDir);
+        if (entries == null) {
+            entries = hadoop1x ? classpath1x(hadoopDir) : classpath2x(hadoopDir);
+            classpaths.put(hadoopDir, entries);
+        }
+
+        List<String> classpath = new ArrayList<>();
+        classpath.add(confDir.getPath());
+        classpath.addAll(entries);
+        return Strings.join(classpath, File.pathSeparator);
+    }
+
+    // bin/hadoop: webapps parent, hadoop-core jar, lib/*.jar, lib/jsp-2.1/*.jar
+    private static List<String> classpath1x(File hadoopDir) {
+        List<String> entries = new ArrayList<>();
+        if (new File(hadoopDir, "webapps").isDirectory()) entries.add(hadoopDir.getPath());
+
+        for (File jar : jars(hadoopDir))
+            if (jar.getName().startsWith("hadoop-core-")) entries.add(jar.getPath());
+
+        addJars(entries, new File(hadoopDir, "lib"));
+        addJars(entries, new File(hadoopDir, "lib/jsp-2.1"));
+        return entries;
+    }
+
+    // libexec/hadoop-config.sh: webapps parent, lib/*, * of common & hdfs modules
+    private static List<String> classpath2x(File hadoopDir) {
+        List<String> entries = new ArrayList<>();
+
+        for (String module : Arrays.asList("common", "hdfs")) {
+            File dir = new File(hadoopDir, "share/hadoop/" + module);
+            if (new File(dir, "webapps").isDirectory()) entries.add(dir.getPath());
+
+            addJars(entries, new File(dir, "lib"));
+            addJars(entries, dir);
+        }
+
+        return entries;
+    }
+
+    private static void addJars(List<String> entries, File dir) {
+        for (File jar : jars(dir)) entries.add(jar.getPath());
+    }
+
+    private static List<File> jars(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) return Collections.emptyList();
+
+        List<File> jars = new ArrayList<>();
+        for (File file : files)
+            if (file.isFile() && file.getName().toLowerCase().endsWith(".jar")) jars.add(file);
+
+        Collections.sort(jars);
+        return jars;
+    }
+
+    private static File nativeDir(File hadoopDir, boolean hadoop1x) {
+        if (!hadoop1x) return new File(hadoopDir, "lib/native");
+
+        // 1.x: lib/native/<os>-<arch>-<data model>, i.e. Linux-amd64-64
+        String platform = System.getProperty("os.name") + "-" + System.getProperty("os.arch") + "-" + System.getProperty("sun.arch.data.model");
+        return new File(hadoopDir, "lib/native/" + platform.replace(' ', '_'));
+    }
+
+    // Process.pid() on java 9+, UNIXProcess.pid before; -1 if not available
+    public static int pid(Process process) {
+        try { return ((Number) Process.class.getMethod("pid").invoke(process)).intValue(); }
+        catch (ReflectiveOperationException ignore) {}
+
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+}
@@ -18,6 +18,7 @@ public class HdfsProcess {
     private String hostname;
 
     private Process process;
+    private int pid = -1;
 
     public HdfsProcess(Node node, String hostname) {
         this.node = node;
@@ -33,6 +34,9 @@ public class HdfsProcess {
         process = startProcess();
     }
 
+    // jvm pid of hdfs daemon, -1 if not started or unknown
+    public int pid() { return pid; }
+
     public int waitFor() throws InterruptedException {
         if (process == null) throw new IllegalStateException("!started");
 
@@ -146,33 +150,37 @@ public class HdfsProcess {
 
         logger.info("Formatting namenode");
 
-        ProcessBuilder builder = new ProcessBuilder(Executor.hdfs().getPath(), "namenode", "-format", "-force")
+        ProcessBuilder builder = new ProcessBuilder(HadoopJvm.command(Node.Type.NAMENODE, node.hadoopJvmOpts, "-format", "-force"))
             .redirectOutput(ProcessBuilder.Redirect.INHERIT)
             .redirectError(ProcessBuilder.Redirect.INHERIT);
 
-        builder.environment().put("JAVA_HOME", "" + Executor.javaHome);
+        initEnv(builder.environment());
 
         int code = builder.start().waitFor();
         if (code != 0) throw new IllegalStateException("Failed to format namenode: process exited with " + code);
     }
 
-    private Process startProcess() throws IOException {
-        String cmd;
-        switch (node.type) {
-            case NAMENODE: cmd = "namenode"; break;
-            case DATANODE: cmd = "datanode"; break;
-            default: throw new IllegalStateException("unsupported node type " + node.type);
-        }
+    // env expected by hadoop code itself (i.e. child processes), scripts are not run
+    private void initEnv(Map<String, String> env) {
+        env.put("JAVA_HOME", "" + Executor.javaHome);
+        env.put("HADOOP_HOME", Executor.hadoopDir.getAbsolutePath());
+        env.put("HADOOP_CONF_DIR", Executor.hadoopConfDir().getAbsolutePath());
+        env.put("HADOOP_LOG_DIR", HadoopJvm.logDir().getAbsolutePath());
+    }
 
-        ProcessBuilder builder = new ProcessBuilder(Executor.hdfs().getPath(), cmd)
+    private Process startProcess() throws IOException {
+        // java is launched directly, so process is the daemon jvm itself
+        ProcessBuilder builder = new ProcessBuilder(HadoopJvm.command(node.type, node.hadoopJvmOpts))
             .redirectOutput(ProcessBuilder.Redirect.INHERIT)
             .redirectError(ProcessBuilder.Redirect.INHERIT);
 
-        Map<String, String> env = builder.environment();
-        env.put("JAVA_HOME", "" + Executor.javaHome);
-        if (node.hadoopJvmOpts != null) env.put("HADOOP_OPTS", node.hadoopJvmOpts);
+        initEnv(builder.environment());
 
         logger.info("Starting process '" + Strings.join(builder.command(), " ") + "'");
-        return builder.start();
+        Process process = builder.start();
+
+        pid = HadoopJvm.pid(process);
+        logger.info("Process started, pid " + pid);
+        return process;
     }
 }
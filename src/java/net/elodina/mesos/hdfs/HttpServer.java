@@ -5,6 +5,9 @@ import net.elodina.mesos.util.IO;
 import net.elodina.mesos.util.Period;
 import net.elodina.mesos.util.Strings;
 import org.apache.log4j.Logger;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.InclusiveByteRange;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.server.Server;
@@ -15,21 +18,40 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HttpServer {
     private static final Logger logger = Logger.getLogger(HttpServer.class);
 
     private Server server;
 
+    // event streams are written by own writer task each, so slow client blocks neither scheduler nor other clients
+    private ExecutorService writers;
+    private ScheduledExecutorService keepAlives;
+    private Set<Servlet.EventStream> streams = new CopyOnWriteArraySet<>();
+    static Period keepAlive = new Period("30s");
+    // distinguishes node list versions of scheduler processes
+    private static final String ETAG_EPOCH = Long.toHexString(System.currentTimeMillis());
+    // events queued for a stream not keeping up, stream is closed above it
+    static int maxQueuedEvents = 1000;
+
     public void start() throws Exception {
         if (server != null) throw new IllegalStateException("started");
         Scheduler.Config config = Scheduler.$.config;
@@ -37,13 +59,19 @@ public class HttpServer {
         QueuedThreadPool threadPool = new QueuedThreadPool(Runtime.getRuntime().availableProcessors() * 16);
         threadPool.setName("Jetty");
 
+        writers = Executors.newCachedThreadPool(daemonThreads("NodeEvents"));
+        keepAlives = Executors.newSingleThreadScheduledExecutor(daemonThreads("NodeEventsKeepAlive"));
+
         server = new Server(threadPool);
         ServerConnector connector = new ServerConnector(server);
         connector.setPort(config.apiPort());
         connector.setIdleTimeout(60 * 1000);
 
         ServletContextHandler handler = new ServletContextHandler();
-        handler.addServlet(new ServletHolder(new Servlet()), "/");
+        ServletHolder holder = new ServletHolder(new Servlet());
+        // node start/stop waits without holding a thread
+        holder.setAsyncSupported(true);
+        handler.addServlet(holder, "/");
         handler.setErrorHandler(new ErrorHandler());
 
         server.setHandler(handler);
@@ -56,6 +84,10 @@ public class HttpServer {
     public void stop() throws Exception {
         if (server == null) throw new IllegalStateException("!started");
 
+        for (Servlet.EventStream stream : streams) stream.close();
+        keepAlives.shutdownNow();
+        writers.shutdownNow();
+
         server.stop();
         server.join();
         server = null;
@@ -63,6 +95,16 @@ public class HttpServer {
         logger.info("stopped");
     }
 
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
     private class Servlet extends HttpServlet {
         protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException { doGet(request, response); }
 
@@ -87,9 +129,13 @@ public class HttpServer {
 
             if (uri.equals("/health")) handleHealth(response);
             else if (uri.startsWith("/api/node")) handleNodeApi(request, response);
-            else if (uri.startsWith("/jar/")) downloadFile(config.jar, response);
-            else if (uri.startsWith("/hadoop/")) downloadFile(config.hadoop, response);
-            else if (config.jre != null && uri.startsWith("/jre/")) downloadFile(config.jre, response);
+            else if (uri.equals("/api/reconciliation")) handleReconciliation(request, response);
+            else if (uri.startsWith("/artifact/")) downloadArtifact(request, response);
+            else if (uri.startsWith("/jar/")) downloadFile(config.jar, request, response);
+            else if (config.executorJar != null && uri.startsWith("/executor-jar/")) downloadFile(config.executorJar, request, response);
+            else if (uri.startsWith("/hadoop/")) downloadFile(config.hadoop, request, response);
+            else if (config.hadoopFull != null && uri.startsWith("/hadoop-full/")) downloadFile(config.hadoopFull, request, response);
+            else if (config.jre != null && uri.startsWith("/jre/")) downloadFile(config.jre, request, response);
             else throw new HttpError(404, "not found");
         }
 
@@ -98,6 +144,12 @@ public class HttpServer {
             response.getWriter().println("ok");
         }
 
+        private void handleReconciliation(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            request.setAttribute("jsonResponse", true);
+            response.setContentType("application/json; charset=utf-8");
+            response.getWriter().println("" + Scheduler.$.reconciler().toJson());
+        }
+
         private void handleNodeApi(HttpServletRequest request, HttpServletResponse response) throws IOException {
             String uri = request.getRequestURI();
             uri = uri.substring("/api/node".length());
@@ -110,11 +162,16 @@ public class HttpServer {
                 case "/add": case "/update": handleNodeAddUpdate(request, response, uri.equals("/add")); break;
                 case "/start": case "/stop": handleNodeStartStop(request, response, uri.equals("/start")); break;
                 case "/remove": handleNodeRemove(request, response); break;
+                case "/events": handleNodeEvents(request, response); break;
                 default: throw new HttpError(404, "unsupported method " + uri);
             }
         }
 
         private void handleNodeList(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            // taken before reading nodes, so changes made meanwhile produce new etag;
+            // version restarts with process, so etags of previous process never match
+            String etag = "\"" + ETAG_EPOCH + "-" + Nodes.getVersion() + "\"";
+
             String expr = "*";
             if (request.getParameter("node") != null) expr = request.getParameter("node");
 
@@ -122,10 +179,79 @@ public class HttpServer {
             try { ids = Nodes.expandExpr(expr); }
             catch (IllegalArgumentException e) { throw new HttpError(400, "invalid node"); }
 
-            List<Node> nodes = Nodes.getNodes(ids);
+            Set<Node.State> states = null;
+            if (request.getParameter("state") != null) {
+                states = EnumSet.noneOf(Node.State.class);
+                for (String state : request.getParameter("state").split(","))
+                    try { states.add(Node.State.valueOf(state.trim().toUpperCase())); }
+                    catch (IllegalArgumentException e) { throw new HttpError(400, "invalid state"); }
+            }
+
+            Node.Type type = null;
+            if (request.getParameter("type") != null)
+                try { type = Node.Type.valueOf(request.getParameter("type").toUpperCase()); }
+                catch (IllegalArgumentException e) { throw new HttpError(400, "invalid type"); }
+
+            String host = request.getParameter("host");
+
+            Map<String, String> attributes = null;
+            if (request.getParameter("attributes") != null)
+                try { attributes = Strings.parseMap(request.getParameter("attributes")); }
+                catch (IllegalArgumentException e) { throw new HttpError(400, "invalid attributes"); }
+
+            Set<String> fields = null;
+            if (request.getParameter("fields") != null) {
+                fields = new HashSet<>(Arrays.asList(request.getParameter("fields").split(",")));
+                fields.add("id");
+            }
+
+            Integer limit = null;
+            if (request.getParameter("limit") != null)
+                try { limit = Integer.valueOf(request.getParameter("limit")); }
+                catch (NumberFormatException e) { throw new HttpError(400, "invalid limit"); }
+            if (limit != null && limit <= 0) throw new HttpError(400, "invalid limit");
+
+            String cursor = request.getParameter("cursor");
+
+            response.setHeader("ETag", etag);
+            if (etag.equals(request.getHeader("If-None-Match"))) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            List<Node> nodes = new ArrayList<>();
+            for (Node node : Nodes.getNodes(ids)) {
+                if (states != null && !states.contains(node.getState())) continue;
+                if (type != null && node.type != type) continue;
+
+                Node.Runtime runtime = node.runtime;
+                if (host != null && (runtime == null || !host.equals(runtime.hostname))) continue;
+                if (attributes != null && (runtime == null || !runtime.attributes.entrySet().containsAll(attributes.entrySet()))) continue;
+
+                nodes.add(node);
+            }
+
+            // cursor: id of last node of previous page
+            int from = 0;
+            if (cursor != null) {
+                from = ids.indexOf(cursor) + 1;
+                if (from == 0) throw new HttpError(400, "invalid cursor");
+
+                Set<String> pageIds = new HashSet<>(ids.subList(from, ids.size()));
+                for (from = 0; from < nodes.size() && !pageIds.contains(nodes.get(from).id); from++);
+            }
+
+            int to = limit != null ? Math.min(from + limit, nodes.size()) : nodes.size();
+            if (to < nodes.size()) response.setHeader("X-Next-Cursor", nodes.get(to - 1).id);
 
             @SuppressWarnings("unchecked") List<JSONObject> nodesJson = new JSONArray();
-            for (Node node : nodes) nodesJson.add(node.toJson());
+            for (Node node : nodes.subList(from, to)) {
+                JSONObject json = node.toJson();
+                if (fields != null)
+                    for (Object field : json.keySet().toArray())
+                        if (!fields.contains(field)) json.remove(field);
+                nodesJson.add(json);
+            }
 
             response.getWriter().println("" + nodesJson);
         }
@@ -143,7 +269,7 @@ public class HttpServer {
                 Node node = Nodes.getNode(id);
                 if (add && node != null) throw new HttpError(400, "duplicate node");
                 if (!add && node == null) throw new HttpError(400, "node not found");
-                if (!add && node.state != Node.State.IDLE) throw new HttpError(400, "node not idle");
+                if (!add && node.getState() != Node.State.IDLE) throw new HttpError(400, "node not idle");
             }
 
             Node.Type type = null;
@@ -189,6 +315,16 @@ public class HttpServer {
 
             String externalFsUri = request.getParameter("externalFsUri");
 
+            Map<String, Integer> ports = null;
+            if (request.getParameter("ports") != null)
+                try {
+                    ports = Node.parsePorts(request.getParameter("ports"));
+                    for (String name : ports.keySet())
+                        if (!Arrays.asList(Node.Port.HTTP, Node.Port.IPC, Node.Port.DATA).contains(name)) throw new IllegalArgumentException(name);
+                } catch (IllegalArgumentException e) {
+                    throw new HttpError(400, "invalid ports");
+                }
+
             Period failoverDelay = null;
             if (request.getParameter("failoverDelay") != null)
                 try { failoverDelay = new Period(request.getParameter("failoverDelay")); }
@@ -226,9 +362,12 @@ public class HttpServer {
                 if (externalFsUri != null && node.type == Node.Type.NAMENODE)
                     node.externalFsUri = externalFsUri.equals("") ? null : externalFsUri;
 
+                if (ports != null) node.ports = new HashMap<>(ports);
+
                 if (failoverDelay != null) node.failover.delay = failoverDelay;
                 if (failoverMaxDelay != null) node.failover.maxDelay = failoverMaxDelay;
                 if (failoverMaxTries != null) node.failover.maxTries = !failoverMaxTries.equals("") ? Integer.valueOf(failoverMaxTries) : null;
+                Nodes.markDirty(node);
             }
             Nodes.save();
 
@@ -237,7 +376,6 @@ public class HttpServer {
             response.getWriter().println("" + nodesJson);
         }
 
-        @SuppressWarnings("unchecked")
         private void handleNodeStartStop(HttpServletRequest request, HttpServletResponse response, boolean start) throws IOException {
             String expr = request.getParameter("node");
             if (expr == null || expr.isEmpty()) throw new HttpError(400, "node required");
@@ -249,8 +387,8 @@ public class HttpServer {
             for (String id : ids) {
                 Node node = Nodes.getNode(id);
                 if (node == null) throw new HttpError(400, "node not found");
-                if (start && node.state != Node.State.IDLE) throw new HttpError(400, "node not idle");
-                if (!start && node.state == Node.State.IDLE) throw new HttpError(400, "node idle");
+                if (start && node.getState() != Node.State.IDLE) throw new HttpError(400, "node not idle");
+                if (!start && node.getState() == Node.State.IDLE) throw new HttpError(400, "node idle");
                 if (node.isExternal()) throw new HttpError(400, "node external");
             }
 
@@ -260,31 +398,218 @@ public class HttpServer {
                 catch (IllegalArgumentException e) { throw new HttpError(400, "invalid timeout"); }
 
 
-            boolean completed = true;
-            boolean wait = timeout.ms() > 0;
             List<Node> nodes = Nodes.getNodes(ids);
+            // started async before changing state, so no state change is missed
+            StartStopWait wait = timeout.ms() > 0 ? new StartStopWait(request.startAsync(), nodes, start, timeout) : null;
 
             for (Node node : nodes) {
                 node.failover.resetFailures();
-                node.state = start ? Node.State.STARTING : Node.State.STOPPING;
                 if (!start && node.runtime != null) node.runtime.killSent = false;
 
-                Nodes.save();
-                if (!wait) continue;
-
-                try { completed = node.waitFor(start ? Node.State.RUNNING : Node.State.IDLE, timeout); }
-                catch (InterruptedException e) { throw new IllegalStateException(e); }
-                if (!completed) break;
+                // stop is sent on state change, repeated stop resends it
+                if (!start && node.getState() == Node.State.STOPPING) Scheduler.$.stopNode(node);
+                else node.setState(start ? Node.State.STARTING : Node.State.STOPPING);
+                Nodes.markDirty(node);
             }
+            Nodes.save();
+
+            if (wait == null) response.getWriter().write("" + startStopJson(nodes, "scheduled"));
+            else wait.start();
+        }
 
-            String status = wait ? (completed ? (start ? "started": "stopped"): "timeout") : "scheduled";
-            @SuppressWarnings("unchecked") List<JSONObject> nodesJson = (List<JSONObject>)new JSONArray();
+        @SuppressWarnings("unchecked")
+        private JSONObject startStopJson(List<Node> nodes, String status) {
+            List<JSONObject> nodesJson = (List<JSONObject>)new JSONArray();
             for (Node node : nodes) nodesJson.add(node.toJson());
 
             JSONObject json = new JSONObject();
             json.put("status", status);
             json.put("nodes", nodesJson);
-            response.getWriter().write("" + json);
+            return json;
+        }
+
+        // completes async start/stop request when all nodes get target state or on timeout
+        private class StartStopWait implements Nodes.Listener, AsyncListener {
+            private AsyncContext async;
+            private List<Node> nodes;
+            private Node.State state;
+            private String status;
+
+            private AtomicBoolean completed = new AtomicBoolean();
+
+            StartStopWait(AsyncContext async, List<Node> nodes, boolean start, Period timeout) {
+                this.async = async;
+                this.nodes = nodes;
+                state = start ? Node.State.RUNNING : Node.State.IDLE;
+                status = start ? "started" : "stopped";
+
+                async.setTimeout(timeout.ms());
+                async.addListener(this);
+            }
+
+            void start() {
+                Nodes.addListener(this);
+                // nodes may already have state
+                checkCompleted();
+            }
+
+            public void onEvent(Nodes.Event event) {
+                if (event.type == Nodes.Event.Type.STATE) checkCompleted();
+            }
+
+            private void checkCompleted() {
+                for (Node node : nodes)
+                    if (node.getState() != state) return;
+
+                complete(status);
+            }
+
+            public void onTimeout(AsyncEvent event) { complete("timeout"); }
+            public void onError(AsyncEvent event) { Nodes.removeListener(this); }
+            public void onComplete(AsyncEvent event) { Nodes.removeListener(this); }
+            public void onStartAsync(AsyncEvent event) {}
+
+            private void complete(String status) {
+                if (!completed.compareAndSet(false, true)) return;
+                Nodes.removeListener(this);
+
+                try { async.getResponse().getWriter().write("" + startStopJson(nodes, status)); }
+                catch (IOException e) { logger.warn("error writing response", e); }
+                finally { async.complete(); }
+            }
+        }
+
+        private void handleNodeEvents(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            String expr = request.getParameter("node");
+
+            Set<String> ids = null;
+            if (expr != null && !expr.isEmpty())
+                try { ids = new HashSet<>(Nodes.expandExpr(expr)); }
+                catch (IllegalArgumentException e) { throw new HttpError(400, "invalid node"); }
+
+            response.setContentType("text/event-stream; charset=utf-8");
+            response.setHeader("Cache-Control", "no-cache");
+            response.flushBuffer();
+
+            new EventStream(request.startAsync(), ids).start();
+        }
+
+        // server-sent events: current state of nodes, then node events as they happen;
+        // events are queued per stream and written by its writer task, stream falling behind is closed
+        class EventStream implements Nodes.Listener, AsyncListener {
+            private AsyncContext async;
+            private Set<String> ids;
+
+            private ScheduledFuture<?> keepAliveFuture;
+            private AtomicBoolean closed = new AtomicBoolean();
+
+            // guarded by this
+            private Queue<String> queue = new ArrayDeque<>();
+            private int maxQueued = maxQueuedEvents;
+            private boolean writing;
+
+            EventStream(AsyncContext async, Set<String> ids) {
+                this.async = async;
+                this.ids = ids;
+
+                async.setTimeout(0);
+                async.addListener(this);
+            }
+
+            void start() {
+                streams.add(this);
+                Nodes.addListener(this);
+
+                List<Node> nodes = Nodes.getNodes();
+                synchronized (this) { maxQueued += nodes.size(); }
+                for (Node node : nodes)
+                    onEvent(new Nodes.Event(Nodes.Event.Type.STATE, node));
+
+                try {
+                    keepAliveFuture = keepAlives.scheduleWithFixedDelay(new Runnable() {
+                        public void run() { enqueue(":\n\n"); }
+                    }, keepAlive.ms(), keepAlive.ms(), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    close();
+                }
+                if (closed.get() && keepAliveFuture != null) keepAliveFuture.cancel(false);
+            }
+
+            public void onEvent(Nodes.Event event) {
+                if (ids != null && !ids.contains(event.node)) return;
+                enqueue("event: " + event.type.name().toLowerCase() + "\ndata: " + event.toJson() + "\n\n");
+            }
+
+            private void enqueue(String s) {
+                boolean overflow = false, submit = false;
+
+                synchronized (this) {
+                    if (closed.get()) return;
+
+                    if (queue.size() >= maxQueued) overflow = true;
+                    else {
+                        queue.add(s);
+                        if (!writing) writing = submit = true;
+                    }
+                }
+
+                if (overflow) {
+                    logger.warn("Closing event stream: client is not keeping up");
+                    close();
+                    return;
+                }
+
+                if (submit)
+                    try {
+                        writers.execute(new Runnable() {
+                            public void run() { drain(); }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        close();
+                    }
+            }
+
+            // writes queued events in batches until queue is empty
+            private void drain() {
+                while (true) {
+                    StringBuilder batch = new StringBuilder();
+                    synchronized (this) {
+                        if (queue.isEmpty() || closed.get()) { writing = false; return; }
+                        for (String s = queue.poll(); s != null; s = queue.poll()) batch.append(s);
+                    }
+
+                    write(batch.toString());
+                }
+            }
+
+            private void write(String s) {
+                if (closed.get()) return;
+
+                try {
+                    ServletOutputStream out = async.getResponse().getOutputStream();
+                    out.write(s.getBytes("utf-8"));
+                    out.flush();
+                } catch (IOException | IllegalStateException e) {
+                    close();
+                }
+            }
+
+            public void onTimeout(AsyncEvent event) { close(); }
+            public void onError(AsyncEvent event) { close(); }
+            public void onComplete(AsyncEvent event) { close(); }
+            public void onStartAsync(AsyncEvent event) {}
+
+            void close() {
+                if (!closed.compareAndSet(false, true)) return;
+
+                streams.remove(this);
+                Nodes.removeListener(this);
+                synchronized (this) { queue.clear(); }
+                if (keepAliveFuture != null) keepAliveFuture.cancel(false);
+
+                try { async.complete(); }
+                catch (IllegalStateException ignore) {}
+            }
         }
 
         private void handleNodeRemove(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -300,7 +625,7 @@ public class HttpServer {
             for (String id : ids) {
                 Node node = Nodes.getNode(id);
                 if (node == null) throw new HttpError(400, "node not found");
-                if (node.state != Node.State.IDLE) throw new HttpError(400, "node not idle");
+                if (node.getState() != Node.State.IDLE) throw new HttpError(400, "node not idle");
             }
 
             for (Node node : Nodes.getNodes(ids))
@@ -312,12 +637,163 @@ public class HttpServer {
             response.getWriter().write("" + json);
         }
 
-        private void downloadFile(File file, HttpServletResponse response) throws IOException {
-            response.setContentType("application/zip");
-            response.setHeader("Content-Length", "" + file.length());
+        // /artifact/<sha256>/<name>: content never changes for url, so it may be cached forever
+        private void downloadArtifact(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            String[] parts = request.getRequestURI().substring("/artifact/".length()).split("/", 2);
+            Scheduler.Artifact artifact = Scheduler.$.config.artifacts.get(parts[0]);
+
+            if (artifact == null || parts.length < 2 || !parts[1].equals(artifact.file.getName())) throw new HttpError(404, "not found");
+            // file replaced after hashing, its content doesn't match hash anymore
+            if (artifact.isChanged()) throw new HttpError(404, "artifact changed");
+
+            response.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+            downloadFile(artifact.file, request, response);
+        }
+
+        // serves file content from channel opened for the request, so file replaced meanwhile doesn't affect download;
+        // supports single byte range & conditional requests (If-None-Match, If-Modified-Since, If-Range)
+        private void downloadFile(File file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            try (FileContent content = new FileContent(file)) { downloadFile(content, request, response); }
+        }
+
+        private void downloadFile(FileContent content, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            File file = content.file;
+
+            response.setHeader("ETag", content.etag);
+            response.setDateHeader("Last-Modified", content.lastModified);
+            response.setHeader("Accept-Ranges", "bytes");
+
+            if (content.notModified(request)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            String mimeType = mimeTypes.getMimeByExtension(file.getName());
+            response.setContentType(mimeType != null ? mimeType : "application/octet-stream");
             response.setHeader("Content-Disposition", "attachment; filename=\"" + file.getName() + "\"");
-            IO.copyAndClose(new FileInputStream(file), response.getOutputStream());
+
+            long offset = 0, length = content.length;
+
+            // multiple ranges are served as full content
+            Enumeration<String> rangeHeaders = request.getHeaders("Range");
+            if (rangeHeaders != null && rangeHeaders.hasMoreElements() && content.rangeApplies(request)) {
+                @SuppressWarnings("unchecked") List<InclusiveByteRange> ranges = InclusiveByteRange.satisfiableRanges(rangeHeaders, content.length);
+
+                if (ranges == null || ranges.isEmpty()) {
+                    response.setHeader("Content-Range", InclusiveByteRange.to416HeaderRangeString(content.length));
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+
+                if (ranges.size() == 1) {
+                    InclusiveByteRange range = ranges.get(0);
+                    offset = range.getFirst(content.length);
+                    length = range.getSize(content.length);
+
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader("Content-Range", range.toHeaderRangeString(content.length));
+                }
+            }
+
+            response.setHeader("Content-Length", "" + length);
+            content.send(response.getOutputStream(), offset, length);
+        }
+    }
+
+    private MimeTypes mimeTypes = new MimeTypes();
+
+    // file opened for download: channel keeps reading the file it was opened for, even if it is replaced by rename;
+    // files are not mapped, as in-place overwrite of mapped file crashes jvm (SIGBUS) on access to truncated pages
+    static class FileContent implements Closeable {
+        final File file;
+        final long length;
+        final long lastModified;
+        final String etag;
+
+        private final FileChannel channel;
+
+        FileContent(File file) throws IOException {
+            this.file = file;
+            lastModified = file.lastModified();
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            length = channel.size();
+
+            etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        }
+
+        boolean notModified(HttpServletRequest request) {
+            String ifNoneMatch = request.getHeader("If-None-Match");
+            if (ifNoneMatch != null) return matches(ifNoneMatch);
+
+            long ifModifiedSince = dateHeader(request, "If-Modified-Since");
+            return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+        }
+
+        // If-Range: range is served only if file is unchanged
+        boolean rangeApplies(HttpServletRequest request) {
+            String ifRange = request.getHeader("If-Range");
+            if (ifRange == null) return true;
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) return ifRange.equals(etag);
+
+            long date = dateHeader(request, "If-Range");
+            return date != -1 && lastModified / 1000 <= date / 1000;
         }
+
+        private boolean matches(String header) {
+            for (String tag : header.split(","))
+                if (tag.trim().equals(etag) || tag.trim().equals("*")) return true;
+
+            return false;
+        }
+
+        private static long dateHeader(HttpServletRequest request, String name) {
+            try { return request.getDateHeader(name); }
+            catch (IllegalArgumentException e) { return -1; }
+        }
+
+        // jetty reads channel straight into its buffers; whole file is sent from file channel itself
+        void send(OutputStream out, long offset, long length) throws IOException {
+            channel.position(offset);
+            ReadableByteChannel content = offset == 0 && length == this.length ? channel : new BoundedChannel(channel, length);
+
+            // HEAD requests are answered by servlet with body-less stream
+            if (out instanceof HttpOutput) ((HttpOutput) out).sendContent(content);
+            else IO.copyAndClose(Channels.newInputStream(content), out);
+        }
+
+        public void close() throws IOException { channel.close(); }
+    }
+
+    // range of channel from its position; closing it leaves underlying channel open
+    private static class BoundedChannel implements ReadableByteChannel {
+        private ReadableByteChannel channel;
+        private long left;
+        private boolean open = true;
+
+        BoundedChannel(ReadableByteChannel channel, long left) {
+            this.channel = channel;
+            this.left = left;
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            if (left <= 0) return -1;
+
+            int limit = dst.limit();
+            if (dst.remaining() > left) dst.limit(dst.position() + (int) left);
+
+            try {
+                int read = channel.read(dst);
+                if (read > 0) left -= read;
+                return read;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        public boolean isOpen() { return open; }
+
+        public void close() { open = false; }
     }
 
     private class ErrorHandler extends org.eclipse.jetty.server.handler.ErrorHandler {
@@ -1,10 +1,14 @@
 package net.elodina.mesos.hdfs;
 
 import net.elodina.mesos.api.*;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import net.elodina.mesos.util.*;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -12,7 +16,7 @@ import java.util.*;
 public class Node {
     public String id;
     public Type type = Type.NAMENODE;
-    public State state = State.IDLE;
+    private volatile State state = State.IDLE;
 
     public double cpus = 0.5;
     public long mem = 512;
@@ -26,6 +30,11 @@ public class Node {
 
     public String externalFsUri;
 
+    // fixed ports by name, node starts only on offers having them
+    public Map<String, Integer> ports = new HashMap<>();
+    // ports of last reservation, preferred when offered again
+    public Map<String, Integer> lastPorts = new HashMap<>();
+
     public Stickiness stickiness = new Stickiness();
     public Failover failover = new Failover();
     public Runtime runtime;
@@ -35,21 +44,41 @@ public class Node {
     public Node(String id) { this.id = id; }
     public Node(String id, Node.Type type) { this.id = id; this.type = type; }
     public Node(JSONObject json) { fromJson(json); }
+    public Node(byte[] bytes) { fromBytes(bytes); }
 
     public boolean isExternal() { return externalFsUri != null; }
 
+    public State getState() { return state; }
+
+    public void setState(State state) {
+        State old = this.state;
+        this.state = state;
+        Nodes.stateChanged(this, old);
+        if (state != old) {
+            // fired before scheduler reacts, as it may change state further (stopping -> idle)
+            Nodes.Event event = new Nodes.Event(Nodes.Event.Type.STATE, this);
+            event.old = old;
+            Nodes.fireEvent(event);
+
+            Scheduler.$.nodeStateChanged(this);
+        }
+    }
+
     public String matches(Offer offer) { return matches(offer, Collections.<String, Collection<String>>emptyMap(), new Date()); }
 
     public String matches(Offer offer, Map<String, Collection<String>> otherAttributes) { return matches(offer, otherAttributes, new Date()); }
 
     public String matches(Offer offer, Date now) { return matches(offer, Collections.<String, Collection<String>>emptyMap(), now); }
 
-    public String matches(Offer offer, Map<String, Collection<String>> otherAttributes, Date now) {
-        Reservation reservation = reserve(offer);
+    public String matches(Offer offer, Map<String, Collection<String>> otherAttributes, Date now) { return matches(new OfferView(offer), otherAttributes, now); }
 
+    public String matches(OfferView offer, Map<String, Collection<String>> otherAttributes, Date now) {
         // resources
-        if (reservation.cpus < cpus) return "cpus < " + cpus;
-        if (reservation.mem < mem) return "mem < " + mem;
+        if (offer.cpus < cpus) return "cpus < " + cpus;
+        if (offer.mem < mem) return "mem < " + mem;
+
+        for (String name : Node.Port.names(type))
+            if (ports.containsKey(name) && !offer.hasPort(ports.get(name))) return "no " + name + " port " + ports.get(name);
 
         // namenode running
         if (type == Type.DATANODE) {
@@ -57,106 +86,62 @@ public class Node {
             Node nn = nns.isEmpty() ? null : nns.get(0);
 
             if (nn == null) return "no namenode";
-            if (!nn.isExternal() && nn.state != State.RUNNING) return "no running or external namenode";
+            if (!nn.isExternal() && nn.getState() != State.RUNNING) return "no running or external namenode";
         }
 
         // constraints
-        Map<String, String> offerAttributes = new HashMap<>();
-        offerAttributes.put("hostname", offer.hostname());
-
-        for (Attribute attribute : offer.attributes())
-            offerAttributes.put(attribute.name(), "" + attribute.value());
-
         for (String name : constraints.keySet()) {
             Constraint constraint = constraints.get(name);
-            if (!offerAttributes.containsKey(name)) return "no " + name + " attribute";
-            if (!constraint.matches(offerAttributes.get(name), otherAttributes.get(name))) return name + " doesn't match " + constraint;
+            if (!offer.attributes.containsKey(name)) return "no " + name + " attribute";
+            if (!constraint.matches(offer.attributes.get(name), otherAttributes.get(name))) return name + " doesn't match " + constraint;
         }
 
         // stickiness
-        if (!stickiness.allowsHostname(offer.hostname(), now))
+        if (!stickiness.allowsHostname(offer.offer.hostname(), now))
             return "hostname != stickiness hostname";
 
         return null;
     }
 
-    public Reservation reserve(Offer offer) {
-        Map<String, Resource> resources = new HashMap<>();
-        for (Resource resource : offer.resources()) resources.put(resource.name(), resource);
+    public Reservation reserve(Offer offer) { return reserve(new OfferView(offer)); }
 
-        // cpu
-        double reservedCpus = 0;
-        Resource cpusResource = resources.get("cpus");
-        if (cpusResource != null) reservedCpus = Math.min(cpusResource.value().asDouble(), cpus);
-
-        // mem
-        long reservedMem = 0;
-        Resource memResource = resources.get("mem");
-        if (memResource != null) reservedMem = Math.min((long) memResource.value().asLong(), mem);
-
-        // ports
+    public Reservation reserve(OfferView offer) {
+        double reservedCpus = Math.min(offer.cpus, cpus);
+        long reservedMem = Math.min(offer.mem, mem);
         Map<String, Integer> reservedPorts = reservePorts(offer);
 
         return new Reservation(reservedCpus, reservedMem, reservedPorts);
     }
 
-    private Map<String, Integer> reservePorts(Offer offer) {
-        Map<String, Integer> ports = new HashMap<>();
+    private Map<String, Integer> reservePorts(OfferView offer) {
+        Map<String, Integer> reserved = new HashMap<>();
+        PortAllocator allocator = new PortAllocator(offer.ports);
+        String[] names = Node.Port.names(type);
 
-        // find resource
-        Resource portsResource = null;
-        for (Resource resource : offer.resources())
-            if (resource.name().equals("ports")) { portsResource = resource; break; }
-        if (portsResource == null) return ports;
+        // fixed ports, then ports of last reservation if offered, then lowest free
+        for (String name : names)
+            if (ports.containsKey(name) && allocator.allocate(ports.get(name)) != -1) reserved.put(name, ports.get(name));
 
-        // collect & sort ranges
-        List<Range> availPorts = new ArrayList<>(portsResource.value().asRanges());
-        Collections.sort(availPorts, new Comparator<Range>() {
-            public int compare(Range x, Range y) { return x.start() - y.start(); }
-        });
-
-        // reserve ports
-        for (String name : Node.Port.names(type)) {
-            int port = reservePort(null, availPorts);
-            if (port != -1) ports.put(name, port);
-        }
-
-        return ports;
-    }
-
-    int reservePort(Range range, List<Range> availPorts) {
-        Range r = null;
-        if (range == null)
-            r = !availPorts.isEmpty() ? availPorts.get(0) : null; // take first avail range
-        else
-            for (Range t : availPorts) // take first range overlapping with ports
-                if (range.overlap(t) != null) { r = t; break; }
-
-        if (r == null) return -1;
-        int port = range != null ? r.overlap(range).start() : r.start();
-
-        // remove allocated port
-        int idx = availPorts.indexOf(r);
-        availPorts.remove(r);
-        availPorts.addAll(idx, r.split(port));
-
-        return port;
-    }
+        for (String name : names)
+            if (!reserved.containsKey(name) && !ports.containsKey(name) && lastPorts.containsKey(name) && allocator.allocate(lastPorts.get(name)) != -1)
+                reserved.put(name, lastPorts.get(name));
 
-    public boolean waitFor(State state, Period timeout) throws InterruptedException {
-        long t = timeout.ms();
+        for (String name : names) {
+            if (reserved.containsKey(name) || ports.containsKey(name)) continue;
 
-        while (t > 0 && this.state != state) {
-            long delay = Math.min(100, t);
-            Thread.sleep(delay);
-            t -= delay;
+            int port = allocator.allocate();
+            if (port != -1) reserved.put(name, port);
         }
 
-        return this.state == state;
+        return reserved;
     }
 
-    public void initRuntime(Offer offer) {
-        reservation = reserve(offer);
+    public void initRuntime(Offer offer) { initRuntime(new OfferView(offer)); }
+
+    public void initRuntime(OfferView view) {
+        Offer offer = view.offer;
+        reservation = reserve(view);
+        lastPorts = new HashMap<>(reservation.ports);
 
         runtime = new Runtime();
         runtime.slaveId = offer.slaveId();
@@ -166,6 +151,7 @@ public class Node {
             runtime.attributes.put(attribute.name(), "" + attribute.value());
 
         runtime.fsUri = getFsUri();
+        Nodes.runtimeChanged(this);
     }
 
     private String getFsUri() {
@@ -186,6 +172,7 @@ public class Node {
     public void registerStart(String hostname) {
         stickiness.registerStart(hostname);
         failover.resetFailures();
+        Nodes.markDirty(this);
     }
 
     public void registerStop() { registerStop(new Date(), false); }
@@ -195,6 +182,7 @@ public class Node {
 
         if (failed) failover.registerFailure(now);
         else failover.resetFailures();
+        Nodes.markDirty(this);
     }
 
     public Task newTask() {
@@ -217,19 +205,31 @@ public class Node {
         if (runtime == null) throw new IllegalStateException("runtime == null");
 
         Scheduler.Config config = Scheduler.$.config;
-        String cmd = "java -cp " + config.jar.getName();
+        File jar = config.executorJar();
+        String jarPath = config.executorJar != null ? "/executor-jar/" : "/jar/";
+
+        String cmd = "java -cp " + jar.getName();
         if (executorJvmOpts != null) cmd += " " + executorJvmOpts;
 
         cmd += " net.elodina.mesos.hdfs.Executor";
         cmd += " --driver=" + config.driver;
         cmd += " --debug=" + config.debug;
 
+        // content-addressed urls are immutable, so fetcher cache is safe for them
         Command command = new Command()
-            .addUri(new Command.URI(config.api + "/jar/" + config.jar.getName(), false).cache(false))
-            .addUri(new Command.URI(config.api + "/hadoop/" + config.hadoop.getName()));
+            .addUri(new Command.URI(config.artifactUrl(jar, jarPath), false).cache(config.isPublished(jar)));
+
+        // cached hadoop is keyed by hash, so executor gets it extracted by previous tasks on the host
+        String hadoopUrl = config.artifactUrl(config.hadoop, "/hadoop/");
+        String hadoopHash = config.artifactHash(config.hadoop);
+
+        if (config.hadoopCache != null && hadoopHash != null)
+            cmd += " --hadoop-cache=" + config.hadoopCache + " --hadoop-url=" + hadoopUrl + " --hadoop-hash=" + hadoopHash;
+        else
+            command.addUri(new Command.URI(hadoopUrl).cache(hadoopHash != null));
 
         if (config.jre != null) {
-            command.addUri(new Command.URI(config.api + "/jre/" + config.jre.getName()));
+            command.addUri(new Command.URI(config.artifactUrl(config.jre, "/jre/")).cache(config.isPublished(config.jre)));
             cmd = "jre/bin/" + cmd;
         }
 
@@ -262,6 +262,9 @@ public class Node {
 
         if (externalFsUri != null) json.put("externalFsUri", externalFsUri);
 
+        if (!ports.isEmpty()) json.put("ports", Strings.formatMap(ports));
+        if (!lastPorts.isEmpty()) json.put("lastPorts", Strings.formatMap(lastPorts));
+
         json.put("stickiness", stickiness.toJson());
         json.put("failover", failover.toJson());
         if (runtime != null) json.put("runtime", runtime.toJson());
@@ -301,12 +304,29 @@ public class Node {
 
         if (json.containsKey("externalFsUri")) externalFsUri = (String) json.get("externalFsUri");
 
+        ports = json.containsKey("ports") ? parsePorts((String) json.get("ports")) : new HashMap<String, Integer>();
+        lastPorts = json.containsKey("lastPorts") ? parsePorts((String) json.get("lastPorts")) : new HashMap<String, Integer>();
+
         stickiness = new Stickiness((JSONObject) json.get("stickiness"));
         failover = new Failover((JSONObject) json.get("failover"));
         if (json.containsKey("runtime")) runtime = new Runtime((JSONObject) json.get("runtime"));
         if (json.containsKey("reservation")) reservation = new Reservation((JSONObject) json.get("reservation"));
     }
 
+    // http=50070,ipc=8020; ports should be distinct
+    public static Map<String, Integer> parsePorts(String s) {
+        Map<String, Integer> ports = new HashMap<>();
+
+        Map<String, String> m = Strings.parseMap(s);
+        for (String name : m.keySet()) {
+            Integer port = Integer.valueOf(m.get(name));
+            if (ports.containsValue(port)) throw new IllegalArgumentException("duplicate port " + port);
+            ports.put(name, port);
+        }
+
+        return ports;
+    }
+
     @SuppressWarnings({"unchecked", "RedundantCast"})
     public static List<Node> fromJsonArray(JSONArray nodesJson) {
         List<Node> nodes = new ArrayList<>();
@@ -314,12 +334,85 @@ public class Node {
         return nodes;
     }
 
-    private static SimpleDateFormat dateTimeFormat() {
-        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-        format.setTimeZone(TimeZone.getTimeZone("UTC-0"));
-        return format;
+    public byte[] toBytes() {
+        return Proto.bytes(new Proto.Writer() {
+            public void write(CodedOutputStream out) throws IOException {
+                out.writeString(1, id);
+                out.writeString(2, type.name());
+                out.writeString(3, state.name());
+
+                out.writeDouble(4, cpus);
+                out.writeInt64(5, mem);
+
+                if (!constraints.isEmpty()) out.writeString(6, Strings.formatMap(constraints));
+
+                Proto.writeString(out, 7, executorJvmOpts);
+                Proto.writeString(out, 8, hadoopJvmOpts);
+
+                Proto.writeMap(out, 9, coreSiteOpts);
+                Proto.writeMap(out, 10, hdfsSiteOpts);
+
+                Proto.writeString(out, 11, externalFsUri);
+
+                Proto.writeMap(out, 16, ports);
+                Proto.writeMap(out, 17, lastPorts);
+
+                Proto.writeMessage(out, 12, stickiness.toBytes());
+                Proto.writeMessage(out, 13, failover.toBytes());
+                if (runtime != null) Proto.writeMessage(out, 14, runtime.toBytes());
+                if (reservation != null) Proto.writeMessage(out, 15, reservation.toBytes());
+            }
+        });
+    }
+
+    public void fromBytes(byte[] bytes) {
+        constraints.clear();
+        coreSiteOpts.clear();
+        hdfsSiteOpts.clear();
+        ports.clear();
+        lastPorts.clear();
+
+        Proto.read(bytes, new Proto.Reader() {
+            public boolean read(int field, CodedInputStream in) throws IOException {
+                String[] entry;
+                switch (field) {
+                    case 1: id = in.readString(); return true;
+                    case 2: type = Type.valueOf(in.readString()); return true;
+                    case 3: state = State.valueOf(in.readString()); return true;
+                    case 4: cpus = in.readDouble(); return true;
+                    case 5: mem = in.readInt64(); return true;
+                    case 6:
+                        Map<String, String> m = Strings.parseMap(in.readString());
+                        for (String name : m.keySet()) constraints.put(name, new Constraint(m.get(name)));
+                        return true;
+                    case 7: executorJvmOpts = in.readString(); return true;
+                    case 8: hadoopJvmOpts = in.readString(); return true;
+                    case 9: entry = Proto.readEntry(in); coreSiteOpts.put(entry[0], entry[1]); return true;
+                    case 10: entry = Proto.readEntry(in); hdfsSiteOpts.put(entry[0], entry[1]); return true;
+                    case 11: externalFsUri = in.readString(); return true;
+                    case 12: stickiness = new Stickiness(Proto.readMessage(in)); return true;
+                    case 13: failover = new Failover(Proto.readMessage(in)); return true;
+                    case 14: runtime = new Runtime(Proto.readMessage(in)); return true;
+                    case 15: reservation = new Reservation(Proto.readMessage(in)); return true;
+                    case 16: entry = Proto.readEntry(in); ports.put(entry[0], Integer.valueOf(entry[1])); return true;
+                    case 17: entry = Proto.readEntry(in); lastPorts.put(entry[0], Integer.valueOf(entry[1])); return true;
+                    default: return false;
+                }
+            }
+        });
     }
 
+    // SimpleDateFormat is not thread-safe, so one instance is cached per thread
+    private static final ThreadLocal<SimpleDateFormat> dateTimeFormat = new ThreadLocal<SimpleDateFormat>() {
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            format.setTimeZone(TimeZone.getTimeZone("UTC-0"));
+            return format;
+        }
+    };
+
+    static SimpleDateFormat dateTimeFormat() { return dateTimeFormat.get(); }
+
     public int hashCode() { return id.hashCode(); }
 
     public boolean equals(Object obj) { return obj instanceof Node && ((Node) obj).id.equals(id); }
@@ -364,6 +457,7 @@ public class Node {
 
         public Runtime() {}
         public Runtime(JSONObject json) { fromJson(json); }
+        public Runtime(byte[] bytes) { fromBytes(bytes); }
 
         @SuppressWarnings("unchecked")
         public JSONObject toJson() {
@@ -394,6 +488,41 @@ public class Node {
             fsUri = (String) json.get("fsUri");
             killSent = (boolean) json.get("killSent");
         }
+
+        public byte[] toBytes() {
+            return Proto.bytes(new Proto.Writer() {
+                public void write(CodedOutputStream out) throws IOException {
+                    out.writeString(1, taskId);
+                    out.writeString(2, executorId);
+
+                    Proto.writeString(out, 3, slaveId);
+                    Proto.writeString(out, 4, hostname);
+                    Proto.writeMap(out, 5, attributes);
+
+                    Proto.writeString(out, 6, fsUri);
+                    out.writeBool(7, killSent);
+                }
+            });
+        }
+
+        public void fromBytes(byte[] bytes) {
+            attributes.clear();
+
+            Proto.read(bytes, new Proto.Reader() {
+                public boolean read(int field, CodedInputStream in) throws IOException {
+                    switch (field) {
+                        case 1: taskId = in.readString(); return true;
+                        case 2: executorId = in.readString(); return true;
+                        case 3: slaveId = in.readString(); return true;
+                        case 4: hostname = in.readString(); return true;
+                        case 5: String[] entry = Proto.readEntry(in); attributes.put(entry[0], entry[1]); return true;
+                        case 6: fsUri = in.readString(); return true;
+                        case 7: killSent = in.readBool(); return true;
+                        default: return false;
+                    }
+                }
+            });
+        }
     }
 
     public static class Reservation {
@@ -410,6 +539,7 @@ public class Node {
         }
 
         public Reservation(JSONObject json) { fromJson(json); }
+        public Reservation(byte[] bytes) { fromBytes(bytes); }
 
         public List<Resource> toResources() {
             class R {
@@ -439,6 +569,55 @@ public class Node {
             return resources;
         }
 
+        public Offer subtractFrom(Offer offer) {
+            double cpus = this.cpus;
+            long mem = this.mem;
+            Collection<Integer> ports = new ArrayList<>(this.ports.values());
+
+            List<Resource> resources = new ArrayList<>();
+            for (Resource resource : offer.resources()) {
+                Value value = resource.value();
+
+                if (resource.name().equals("cpus") && cpus > 0) {
+                    double left = value.asDouble() - cpus;
+                    cpus = Math.max(0, -left);
+                    value = new Value(Value.Type.SCALAR, Math.max(0, left));
+                } else if (resource.name().equals("mem") && mem > 0) {
+                    double left = value.asDouble() - mem;
+                    mem = (long) Math.max(0, -left);
+                    value = new Value(Value.Type.SCALAR, Math.max(0, left));
+                } else if (resource.name().equals("ports") && !ports.isEmpty()) {
+                    List<Range> ranges = new ArrayList<>(value.asRanges());
+
+                    for (Iterator<Integer> it = ports.iterator(); it.hasNext(); ) {
+                        int port = it.next();
+
+                        for (int i = 0; i < ranges.size(); i++) {
+                            Range range = ranges.get(i);
+                            if (!range.contains(port)) continue;
+
+                            ranges.remove(i);
+                            ranges.addAll(i, range.split(port));
+                            it.remove();
+                            break;
+                        }
+                    }
+
+                    value = new Value(Value.Type.RANGES, ranges);
+                }
+
+                resources.add(new Resource(resource.name(), value).role(resource.role()));
+            }
+
+            return new Offer()
+                .id(offer.id())
+                .frameworkId(offer.frameworkId())
+                .slaveId(offer.slaveId())
+                .hostname(offer.hostname())
+                .resources(resources)
+                .attributes(offer.attributes());
+        }
+
         public void fromJson(JSONObject json) {
             cpus = (double) json.get("cpus");
             mem = (long) json.get("mem");
@@ -462,6 +641,31 @@ public class Node {
 
             return json;
         }
+
+        public byte[] toBytes() {
+            return Proto.bytes(new Proto.Writer() {
+                public void write(CodedOutputStream out) throws IOException {
+                    out.writeDouble(1, cpus);
+                    out.writeInt64(2, mem);
+                    Proto.writeMap(out, 3, ports);
+                }
+            });
+        }
+
+        public void fromBytes(byte[] bytes) {
+            ports.clear();
+
+            Proto.read(bytes, new Proto.Reader() {
+                public boolean read(int field, CodedInputStream in) throws IOException {
+                    switch (field) {
+                        case 1: cpus = in.readDouble(); return true;
+                        case 2: mem = in.readInt64(); return true;
+                        case 3: String[] entry = Proto.readEntry(in); ports.put(entry[0], Integer.valueOf(entry[1])); return true;
+                        default: return false;
+                    }
+                }
+            });
+        }
     }
 
     public static class Stickiness {
@@ -471,6 +675,7 @@ public class Node {
 
         public Stickiness() {}
         public Stickiness(JSONObject json) { fromJson(json); }
+        public Stickiness(byte[] bytes) { fromBytes(bytes); }
 
         public Date expires() { return stopTime != null ? new Date(stopTime.getTime() + period.ms()) : null; }
 
@@ -512,6 +717,29 @@ public class Node {
 
             return json;
         }
+
+        public byte[] toBytes() {
+            return Proto.bytes(new Proto.Writer() {
+                public void write(CodedOutputStream out) throws IOException {
+                    out.writeString(1, "" + period);
+                    if (stopTime != null) out.writeInt64(2, stopTime.getTime());
+                    Proto.writeString(out, 3, hostname);
+                }
+            });
+        }
+
+        public void fromBytes(byte[] bytes) {
+            Proto.read(bytes, new Proto.Reader() {
+                public boolean read(int field, CodedInputStream in) throws IOException {
+                    switch (field) {
+                        case 1: period = new Period(in.readString()); return true;
+                        case 2: stopTime = new Date(in.readInt64()); return true;
+                        case 3: hostname = in.readString(); return true;
+                        default: return false;
+                    }
+                }
+            });
+        }
     }
 
     public static class Failover {
@@ -525,6 +753,7 @@ public class Node {
         public Failover() {}
         public Failover(Period delay, Period maxDelay) { this.delay = delay; this.maxDelay = maxDelay; }
         public Failover(JSONObject json) { fromJson(json); }
+        public Failover(byte[] bytes) { fromBytes(bytes); }
 
         public Period currentDelay() {
             if (failures == 0) return new Period("0");
@@ -581,5 +810,33 @@ public class Node {
 
             return json;
         }
+
+        public byte[] toBytes() {
+            return Proto.bytes(new Proto.Writer() {
+                public void write(CodedOutputStream out) throws IOException {
+                    out.writeString(1, "" + delay);
+                    out.writeString(2, "" + maxDelay);
+                    if (maxTries != null) out.writeInt32(3, maxTries);
+
+                    if (failures != 0) out.writeInt32(4, failures);
+                    if (failureTime != null) out.writeInt64(5, failureTime.getTime());
+                }
+            });
+        }
+
+        public void fromBytes(byte[] bytes) {
+            Proto.read(bytes, new Proto.Reader() {
+                public boolean read(int field, CodedInputStream in) throws IOException {
+                    switch (field) {
+                        case 1: delay = new Period(in.readString()); return true;
+                        case 2: maxDelay = new Period(in.readString()); return true;
+                        case 3: maxTries = in.readInt32(); return true;
+                        case 4: failures = in.readInt32(); return true;
+                        case 5: failureTime = new Date(in.readInt64()); return true;
+                        default: return false;
+                    }
+                }
+            });
+        }
     }
 }
@@ -6,8 +6,12 @@ import joptsimple.OptionSet;
 import net.elodina.mesos.util.Strings;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -29,6 +33,7 @@ public class NodeCli {
             case "add": case "update": handleAddUpdate(cmd, args, false); break;
             case "start": case "stop": handleStartStop(cmd, args, false); break;
             case "remove": handleRemove(args, false); break;
+            case "watch": handleWatch(args, false); break;
             default: throw new Error("unsupported command " + cmd);
         }
     }
@@ -50,6 +55,7 @@ public class NodeCli {
             case "add": case "update": handleAddUpdate(cmd, args, true); break;
             case "start": case "stop": handleStartStop(cmd, args, true); break;
             case "remove": handleRemove(args, true); break;
+            case "watch": handleWatch(args, true); break;
             default: throw new Error("unsupported command " + cmd);
         }
     }
@@ -95,6 +101,8 @@ public class NodeCli {
         parser.accepts("core-site-opts", "Hadoop core-site.xml options.").withRequiredArg().ofType(String.class);
         parser.accepts("hdfs-site-opts", "Hadoop hdfs-site.xml options.").withRequiredArg().ofType(String.class);
 
+        parser.accepts("ports", "Fixed ports (http=50070,ipc=8020,data=50010). Other ports are allocated from offers, reusing last ones if offered.").withRequiredArg().ofType(String.class);
+
         parser.accepts("external-fs-uri", "FS URI of external namenode. If defined this node becomes external.").withRequiredArg().ofType(String.class);
 
         parser.accepts("failover-delay", "failover delay (10s, 5m, 3h)").withRequiredArg().ofType(String.class);
@@ -136,6 +144,7 @@ public class NodeCli {
         String coreSiteOpts = (String) options.valueOf("core-site-opts");
         String hdfsSiteOpts = (String) options.valueOf("hdfs-site-opts");
 
+        String ports = (String) options.valueOf("ports");
         String externalFsUri = (String) options.valueOf("external-fs-uri");
 
         String failoverDelay = (String) options.valueOf("failover-delay");
@@ -157,6 +166,7 @@ public class NodeCli {
         if (coreSiteOpts != null) params.put("coreSiteOpts", coreSiteOpts);
         if (hdfsSiteOpts != null) params.put("hdfsSiteOpts", hdfsSiteOpts);
 
+        if (ports != null) params.put("ports", ports);
         if (externalFsUri != null) params.put("externalFsUri", externalFsUri);
 
         if (failoverDelay != null) params.put("failoverDelay", failoverDelay);
@@ -253,6 +263,52 @@ public class NodeCli {
         printLine(title);
     }
 
+    private static void handleWatch(List<String> args, boolean help) {
+        if (help) {
+            printLine("Watch node events (state changes, failures, reservations)\nUsage: node watch [<ids>]\n");
+            handleGenericOptions(null, true);
+            return;
+        }
+
+        String expr = !args.isEmpty() ? args.remove(0) : null;
+
+        Map<String, String> params = new HashMap<>();
+        if (expr != null) params.put("node", expr);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(openStream("/node/events", params), "utf-8"))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.startsWith("data:")) continue;
+
+                JSONObject json;
+                try { json = (JSONObject) new JSONParser().parse(line.substring("data:".length()).trim()); }
+                catch (ParseException e) { throw new Error("invalid event " + line); }
+
+                printEvent(new Nodes.Event(json));
+            }
+        } catch (IOException e) {
+            throw new Error("" + e);
+        }
+    }
+
+    private static void printEvent(Nodes.Event event) {
+        String s = time(event.time) + " " + event.node + ": ";
+
+        switch (event.type) {
+            case STATE:
+                String state = event.state.name().toLowerCase();
+                s += event.old != null ? event.old.name().toLowerCase() + " -> " + state : state;
+                break;
+            case FAILURE:
+                s += event.message;
+                break;
+            case RESERVATION:
+                s += event.reservation != null ? "reserved " + nodeReservation(event.reservation) : "reservation released";
+                break;
+        }
+
+        printLine(s);
+    }
+
     private static void printNode(Node node, int indent) {
         printLine("id: " + node.id, indent);
         printLine("type: " + node.type.name().toLowerCase() + (node.isExternal() ? " (external)" : ""), indent);
@@ -272,6 +328,7 @@ public class NodeCli {
 
         if (!node.coreSiteOpts.isEmpty()) printLine("core-site-opts: " + Strings.formatMap(node.coreSiteOpts), indent);
         if (!node.hdfsSiteOpts.isEmpty()) printLine("hdfs-site-opts: " + Strings.formatMap(node.hdfsSiteOpts), indent);
+        if (!node.ports.isEmpty()) printLine("ports: " + Strings.formatMap(node.ports), indent);
 
         printLine("stickiness: " + nodeStickiness(node.stickiness), indent);
         printLine("failover: " + nodeFailover(node.failover), indent);
@@ -294,10 +351,11 @@ public class NodeCli {
         printLine("start      - start node", 1);
         printLine("stop       - stop node", 1);
         printLine("remove     - remove node", 1);
+        printLine("watch      - watch node events", 1);
     }
 
     private static String nodeState(Node node) {
-        if (node.state != Node.State.STARTING) return "" + node.state.name().toLowerCase();
+        if (node.getState() != Node.State.STARTING) return "" + node.getState().name().toLowerCase();
 
         if (node.failover.isWaitingDelay(new Date())) {
             String s = "failed " + node.failover.failures;
@@ -1,31 +1,73 @@
 package net.elodina.mesos.hdfs;
 
+import net.elodina.mesos.util.Period;
+import org.apache.log4j.Logger;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class Nodes {
+    private static final Logger logger = Logger.getLogger(Nodes.class);
     public static Storage storage = Storage.byUri(Scheduler.$.config.storage);
 
     public static String frameworkId;
     private static List<Node> nodes = new ArrayList<>();
 
+    // indexes, maintained on add/remove and on node state/runtime change
+    private static Map<String, Node> nodesById = new HashMap<>();
+    private static Map<String, Node> nodesByTaskId = new HashMap<>();
+    // task id each node is indexed by, so it is unindexed when runtime is reset or replaced
+    private static Map<Node, String> nodeTaskIds = new HashMap<>();
+    private static Map<Node.State, Set<Node>> nodesByState = new EnumMap<>(Node.State.class);
+    private static Map<Node.Type, Set<Node>> nodesByType = new EnumMap<>(Node.Type.class);
+
+    // runtime attributes (including hostname) of nodes: name -> value -> count
+    private static Map<String, Map<String, Integer>> attributes = new HashMap<>();
+    private static Map<Node, Map<String, String>> nodeAttributes = new HashMap<>();
+
+    // incremented on every change of nodes (index updates and changed node fields), used as list ETag
+    private static volatile long version;
+
+    // notified of node events on the thread producing them
+    private static List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // write-behind: save() coalesces changes within saveDelay and flushes them off the caller thread
+    public static Period saveDelay = new Period("100ms");
+    private static ScheduledExecutorService saver;
+    private static ScheduledFuture<?> pendingSave;
+
+    private static final Object flushLock = new Object();
+    // copies of nodes taken by mutating thread at change, so storage never reads nodes changed in place
+    private static Map<String, Node> copies = new HashMap<>();
+    // changed & removed since last flush
+    private static Map<String, Node> dirtyNodes = new LinkedHashMap<>();
+    private static Set<String> removedIds = new LinkedHashSet<>();
+    private static String savedFrameworkId;
+
     private Nodes() {}
 
     public static List<Node> getNodes() { return Collections.unmodifiableList(nodes); }
 
-    public static List<Node> getNodes(Node.State state) {
-        List<Node> nodes = new ArrayList<>();
-        for (Node node : getNodes()) if (node.state == state) nodes.add(node);
-        return nodes;
+    public static synchronized List<Node> getNodes(Node.State state) {
+        Set<Node> nodes = nodesByState.get(state);
+        return nodes != null ? new ArrayList<>(nodes) : new ArrayList<Node>();
+    }
+
+    public static synchronized int countNodes(Node.State state) {
+        Set<Node> nodes = nodesByState.get(state);
+        return nodes != null ? nodes.size() : 0;
     }
 
-    public static List<Node> getNodes(Node.Type type) {
+    public static synchronized List<Node> getNodes(Node.Type type) {
         List<Node> nodes = new ArrayList<>();
-        for (Node node : getNodes()) if (node.type == type) nodes.add(node);
+
+        // type is fixed once node is added, still skip nodes retyped after that
+        Set<Node> indexed = nodesByType.get(type);
+        if (indexed != null)
+            for (Node node : indexed) if (node.type == type) nodes.add(node);
+
         return nodes;
     }
 
@@ -40,11 +82,12 @@ public class Nodes {
         return nodes;
     }
 
-    public static Node getNode(String id) {
-        for (Node node : nodes)
-            if (node.id.equals(id)) return node;
+    public static synchronized Node getNode(String id) { return nodesById.get(id); }
 
-        return null;
+    public static synchronized Node getNodeByTaskId(String taskId) {
+        Node node = nodesByTaskId.get(taskId);
+        // runtime could be reset without reindexing yet
+        return node != null && node.runtime != null && node.runtime.taskId.equals(taskId) ? node : null;
     }
 
     /*
@@ -101,30 +144,346 @@ public class Nodes {
         return ids;
     }
 
-    public static Node addNode(Node node) {
+    public static synchronized Node addNode(Node node) {
+        version++;
         if (getNode(node.id) != null) throw new IllegalArgumentException("duplicate node");
 
         if (node.type == Node.Type.NAMENODE && !getNodes(Node.Type.NAMENODE).isEmpty())
             throw new IllegalArgumentException("second name node is not supported");
 
         nodes.add(node);
+
+        nodesById.put(node.id, node);
+        index(nodesByState, node.getState(), node);
+        index(nodesByType, node.type, node);
+        indexTaskId(node);
+        indexAttributes(node);
+        markDirty(node);
+
         return node;
     }
 
-    public static void removeNode(Node node) {
+    public static synchronized void removeNode(Node node) {
+        if (getNode(node.id) != node) return;
+        version++;
         nodes.remove(node);
+
+        copies.remove(node.id);
+        dirtyNodes.remove(node.id);
+        removedIds.add(node.id);
+
+        nodesById.remove(node.id);
+        unindex(nodesByState, node.getState(), node);
+        unindex(nodesByType, node.type, node);
+        unindexTaskId(node);
+        unindexAttributes(node);
     }
 
-    public static void reset() {
+    public static synchronized void reset() {
         frameworkId = null;
+        clearNodes();
+
+        if (pendingSave != null) pendingSave.cancel(false);
+        pendingSave = null;
+        dirtyNodes.clear();
+        removedIds.clear();
+        savedFrameworkId = null;
+    }
+
+    private static synchronized void clearNodes() {
+        version++;
         nodes.clear();
+
+        nodesById.clear();
+        nodesByTaskId.clear();
+        nodeTaskIds.clear();
+        nodesByState.clear();
+        nodesByType.clear();
+
+        attributes.clear();
+        nodeAttributes.clear();
+
+        for (String id : copies.keySet()) removedIds.add(id);
+        copies.clear();
+        dirtyNodes.clear();
+    }
+
+    static synchronized void stateChanged(Node node, Node.State old) {
+        if (getNode(node.id) != node) return;
+        version++;
+
+        unindex(nodesByState, old, node);
+        index(nodesByState, node.getState(), node);
+        markDirty(node);
     }
 
-    public static void save() { storage.save(); }
-    public static void load() { storage.load(); }
+    // should be called by the thread changing node fields, after the change
+    public static synchronized void markDirty(Node node) {
+        if (getNode(node.id) != node) return;
+
+        // unchanged node is neither saved nor changes version
+        byte[] bytes = node.toBytes();
+        Node old = copies.get(node.id);
+        if (old != null && Arrays.equals(bytes, old.toBytes())) return;
+
+        version++;
+        Node copy = new Node(bytes);
+        copies.put(node.id, copy);
+        dirtyNodes.put(node.id, copy);
+        removedIds.remove(node.id);
+    }
+
+    // copies of nodes in list order, as of their last change
+    public static synchronized List<Node> snapshot() {
+        List<Node> snapshot = new ArrayList<>();
+        for (Node node : nodes) snapshot.add(copies.get(node.id));
+        return snapshot;
+    }
+
+    public interface Listener { void onEvent(Event event); }
+
+    public static void addListener(Listener listener) { listeners.add(listener); }
+    public static void removeListener(Listener listener) { listeners.remove(listener); }
+
+    // called outside of Nodes lock, so listeners may use Nodes
+    static void fireEvent(Event event) {
+        for (Listener listener : listeners)
+            try { listener.onEvent(event); }
+            catch (Exception e) { logger.error("error notifying listener", e); }
+    }
+
+    static void runtimeChanged(Node node) {
+        if (indexRuntime(node)) fireEvent(new Event(Event.Type.RESERVATION, node));
+    }
+
+    private static synchronized boolean indexRuntime(Node node) {
+        if (getNode(node.id) != node) return false;
+        version++;
+        unindexTaskId(node);
+        indexTaskId(node);
+
+        unindexAttributes(node);
+        indexAttributes(node);
+        markDirty(node);
+        return true;
+    }
+
+    private static void indexTaskId(Node node) {
+        if (node.runtime == null) return;
+
+        nodesByTaskId.put(node.runtime.taskId, node);
+        nodeTaskIds.put(node, node.runtime.taskId);
+    }
+
+    private static void unindexTaskId(Node node) {
+        String taskId = nodeTaskIds.remove(node);
+        if (taskId != null) nodesByTaskId.remove(taskId);
+    }
+
+    private static void indexAttributes(Node node) {
+        if (node.runtime == null) return;
+
+        Map<String, String> m = attributesOf(node);
+        nodeAttributes.put(node, m);
+
+        for (String name : m.keySet()) {
+            Map<String, Integer> counts = attributes.get(name);
+            if (counts == null) attributes.put(name, counts = new LinkedHashMap<>());
+
+            String value = m.get(name);
+            Integer count = counts.get(value);
+            counts.put(value, count == null ? 1 : count + 1);
+        }
+    }
+
+    private static void unindexAttributes(Node node) {
+        Map<String, String> m = nodeAttributes.remove(node);
+        if (m == null) return;
+
+        for (String name : m.keySet()) {
+            Map<String, Integer> counts = attributes.get(name);
+            String value = m.get(name);
+
+            int count = counts.get(value) - 1;
+            if (count > 0) counts.put(value, count);
+            else counts.remove(value);
+
+            if (counts.isEmpty()) attributes.remove(name);
+        }
+    }
+
+    private static Map<String, String> attributesOf(Node node) {
+        Map<String, String> m = new LinkedHashMap<>();
+        m.put("hostname", node.runtime.hostname);
+        m.putAll(node.runtime.attributes);
+        return m;
+    }
+
+    // attribute name -> values of nodes having runtime, copied once (per offer batch), so lookups are O(1)
+    public static synchronized Attributes getAttributes() {
+        Attributes result = new Attributes();
+        for (String name : attributes.keySet()) result.values.put(name, new AttributeValues(attributes.get(name)));
+        return result;
+    }
+
+    // snapshot of attribute index; nodes placed after it was taken are added by owner
+    public static class Attributes extends AbstractMap<String, Collection<String>> {
+        private Map<String, AttributeValues> values = new LinkedHashMap<>();
+
+        public Collection<String> get(Object name) { return values.get(name); }
+
+        public boolean containsKey(Object name) { return values.containsKey(name); }
+
+        public Set<Entry<String, Collection<String>>> entrySet() {
+            return Collections.<String, Collection<String>>unmodifiableMap(values).entrySet();
+        }
+
+        public void add(Node node) {
+            if (node.runtime == null) return;
+
+            Map<String, String> m = attributesOf(node);
+            for (String name : m.keySet()) {
+                AttributeValues values = this.values.get(name);
+                if (values == null) this.values.put(name, values = new AttributeValues(Collections.<String, Integer>emptyMap()));
+                values.addValue(m.get(name));
+            }
+        }
+    }
+
+    // multiset of values backed by a copy of counts
+    static class AttributeValues extends AbstractCollection<String> {
+        private Map<String, Integer> counts;
+        private int size;
+
+        private AttributeValues(Map<String, Integer> counts) {
+            this.counts = new LinkedHashMap<>(counts);
+            for (int count : counts.values()) size += count;
+        }
+
+        public boolean contains(Object value) { return counts.containsKey(value); }
+
+        public int count(Object value) {
+            Integer count = counts.get(value);
+            return count != null ? count : 0;
+        }
+
+        public int size() { return size; }
+
+        private void addValue(String value) {
+            counts.put(value, count(value) + 1);
+            size++;
+        }
+
+        public Iterator<String> iterator() {
+            final Iterator<Map.Entry<String, Integer>> entries = counts.entrySet().iterator();
+
+            return new Iterator<String>() {
+                private String value;
+                private int left;
+
+                public boolean hasNext() { return left > 0 || entries.hasNext(); }
+
+                public String next() {
+                    if (left == 0) {
+                        Map.Entry<String, Integer> entry = entries.next();
+                        value = entry.getKey();
+                        left = entry.getValue();
+                    }
+
+                    left--;
+                    return value;
+                }
+
+                public void remove() { throw new UnsupportedOperationException(); }
+            };
+        }
+    }
+
+    private static <K> void index(Map<K, Set<Node>> index, K key, Node node) {
+        Set<Node> nodes = index.get(key);
+        if (nodes == null) index.put(key, nodes = new LinkedHashSet<>());
+        nodes.add(node);
+    }
+
+    private static <K> void unindex(Map<K, Set<Node>> index, K key, Node node) {
+        Set<Node> nodes = index.get(key);
+        if (nodes != null) nodes.remove(node);
+    }
+
+    public static synchronized void save() {
+        if (pendingSave != null) return;
+
+        if (saver == null)
+            saver = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "NodesSaver");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+        pendingSave = saver.schedule(new Runnable() {
+            public void run() {
+                try { flush(); }
+                catch (Throwable t) { logger.error("Failed to save nodes", t); }
+            }
+        }, saveDelay.ms(), TimeUnit.MILLISECONDS);
+    }
+
+    // writes copies of dirty nodes, taken at their change
+    public static void flush() {
+        synchronized (flushLock) {
+            List<Node> changed;
+            List<String> removed;
+            String frameworkId;
+
+            synchronized (Nodes.class) {
+                if (pendingSave != null) pendingSave.cancel(false);
+                pendingSave = null;
+
+                frameworkId = Nodes.frameworkId;
+                changed = new ArrayList<>(dirtyNodes.values());
+                removed = new ArrayList<>(removedIds);
+                dirtyNodes.clear();
+                removedIds.clear();
+            }
+
+            if (changed.isEmpty() && removed.isEmpty() && Objects.equals(frameworkId, savedFrameworkId)) return;
+
+            try { storage.save(changed, removed); }
+            catch (RuntimeException | Error e) {
+                redirty(changed, removed);
+                throw e;
+            }
+
+            savedFrameworkId = frameworkId;
+        }
+    }
+
+    // failed changes are retried by next flush, unless superseded
+    private static synchronized void redirty(List<Node> changed, List<String> removed) {
+        for (Node copy : changed)
+            if (getNode(copy.id) != null && !dirtyNodes.containsKey(copy.id)) dirtyNodes.put(copy.id, copy);
+
+        for (String id : removed)
+            if (getNode(id) == null) removedIds.add(id);
+    }
+
+    public static void load() {
+        synchronized (flushLock) {
+            storage.load();
+
+            synchronized (Nodes.class) {
+                // loaded state is saved already
+                dirtyNodes.clear();
+                removedIds.clear();
+                savedFrameworkId = frameworkId;
+            }
+        }
+    }
 
     @SuppressWarnings("unchecked")
-    public static JSONObject toJson() {
+    public static synchronized JSONObject toJson() {
         JSONObject json = new JSONObject();
 
         if (frameworkId != null) json.put("frameworkId", frameworkId);
@@ -137,11 +496,68 @@ public class Nodes {
     }
 
     @SuppressWarnings({"RedundantCast", "unchecked"})
-    public static void fromJson(JSONObject json) {
-        if (json.containsKey("frameworkId")) frameworkId = (String) json.get("frameworkId");
+    public static synchronized void fromJson(JSONObject json) {
+        List<Node> nodes = json.containsKey("nodes") ? Node.fromJsonArray((JSONArray) json.get("nodes")) : Collections.<Node>emptyList();
+        setNodes((String) json.get("frameworkId"), nodes);
+    }
 
-        nodes.clear();
-        if (json.containsKey("nodes"))
-            nodes.addAll(Node.fromJsonArray((JSONArray) json.get("nodes")));
+    public static long getVersion() { return version; }
+
+    // replaces nodes, frameworkId is kept if null
+    public static synchronized void setNodes(String frameworkId, Collection<Node> nodes) {
+        if (frameworkId != null) Nodes.frameworkId = frameworkId;
+
+        clearNodes();
+        for (Node node : nodes) addNode(node);
+    }
+
+    // node change: state transition, task failure or reservation change; captures node data as of event
+    public static class Event {
+        public enum Type { STATE, FAILURE, RESERVATION }
+
+        public final Type type;
+        public final String node;
+        public final Date time = new Date();
+
+        public final Node.State state;
+        public Node.State old;
+        public String message;
+        public Node.Reservation reservation;
+
+        public Event(Type type, Node node) {
+            this.type = type;
+            this.node = node.id;
+            state = node.getState();
+            if (type == Type.RESERVATION && node.runtime != null) reservation = node.reservation;
+        }
+
+        public Event(JSONObject json) {
+            type = Type.valueOf(((String) json.get("type")).toUpperCase());
+            node = (String) json.get("node");
+
+            try { time.setTime(Node.dateTimeFormat().parse((String) json.get("time")).getTime()); }
+            catch (java.text.ParseException e) { throw new IllegalArgumentException(e); }
+
+            state = Node.State.valueOf(((String) json.get("state")).toUpperCase());
+            if (json.containsKey("old")) old = Node.State.valueOf(((String) json.get("old")).toUpperCase());
+            message = (String) json.get("message");
+            if (json.containsKey("reservation")) reservation = new Node.Reservation((JSONObject) json.get("reservation"));
+        }
+
+        @SuppressWarnings("unchecked")
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+
+            json.put("type", type.name().toLowerCase());
+            json.put("node", node);
+            json.put("time", Node.dateTimeFormat().format(time));
+            json.put("state", state.name().toLowerCase());
+
+            if (old != null) json.put("old", old.name().toLowerCase());
+            if (message != null) json.put("message", message);
+            if (reservation != null) json.put("reservation", reservation.toJson());
+
+            return json;
+        }
     }
 }
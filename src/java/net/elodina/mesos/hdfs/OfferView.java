@@ -0,0 +1,64 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.api.Attribute;
+import net.elodina.mesos.api.Offer;
+import net.elodina.mesos.api.Resource;
+import net.elodina.mesos.util.Range;
+
+import java.util.*;
+
+// offer parsed once for matching by all nodes
+public class OfferView {
+    public final Offer offer;
+
+    public final double cpus;
+    public final long mem;
+    // sorted by start
+    public final List<Range> ports;
+    // hostname & offer attributes
+    public final Map<String, String> attributes;
+
+    public OfferView(Offer offer) {
+        this.offer = offer;
+
+        Map<String, Resource> resources = new HashMap<>();
+        Resource portsResource = null;
+        for (Resource resource : offer.resources()) {
+            resources.put(resource.name(), resource);
+            if (portsResource == null && resource.name().equals("ports")) portsResource = resource;
+        }
+
+        cpus = resources.containsKey("cpus") ? resources.get("cpus").value().asDouble() : 0;
+        mem = resources.containsKey("mem") ? resources.get("mem").value().asLong() : 0;
+
+        List<Range> ports = new ArrayList<>();
+        if (portsResource != null) ports.addAll(portsResource.value().asRanges());
+        Collections.sort(ports, new Comparator<Range>() {
+            public int compare(Range x, Range y) { return x.start() - y.start(); }
+        });
+        this.ports = Collections.unmodifiableList(ports);
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("hostname", offer.hostname());
+        for (Attribute attribute : offer.attributes())
+            attributes.put(attribute.name(), "" + attribute.value());
+        this.attributes = Collections.unmodifiableMap(attributes);
+    }
+
+    public boolean hasPort(int port) {
+        // binary search over sorted ranges
+        int low = 0, high = ports.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Range range = ports.get(mid);
+
+            if (port < range.start()) high = mid - 1;
+            else if (port > range.end()) low = mid + 1;
+            else return true;
+        }
+
+        return false;
+    }
+
+    public String toString() { return "" + offer; }
+}
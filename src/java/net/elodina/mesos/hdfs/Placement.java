@@ -0,0 +1,80 @@
+package net.elodina.mesos.hdfs;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+// ranks matching node/offer pairs, higher score is better placement
+public abstract class Placement {
+    public static final Placement FIRST_FIT = new FirstFit();
+    public static final Placement BEST_FIT = new BestFit();
+
+    public static Placement byName(String name) {
+        switch (name) {
+            case "first-fit": return FIRST_FIT;
+            case "best-fit": return BEST_FIT;
+            default: throw new IllegalArgumentException("unsupported placement " + name);
+        }
+    }
+
+    // part of score not depending on node, computed once per offer
+    public abstract double offerScore(OfferView offer, Map<String, Collection<String>> otherAttributes);
+
+    // node is expected to match offer
+    public abstract double score(Node node, OfferView offer, double offerScore, Date now);
+
+    // all pairs are equal, so nodes are launched in list order
+    private static class FirstFit extends Placement {
+        public double offerScore(OfferView offer, Map<String, Collection<String>> otherAttributes) { return 0; }
+
+        public double score(Node node, OfferView offer, double offerScore, Date now) { return 0; }
+
+        public String toString() { return "first-fit"; }
+    }
+
+    // sum of: share of offer resources used by node (less leftover), spread over hosts & attribute values, stickiness host match
+    static class BestFit extends Placement {
+        public double offerScore(OfferView offer, Map<String, Collection<String>> otherAttributes) { return spread(offer, otherAttributes); }
+
+        public double score(Node node, OfferView offer, double offerScore, Date now) {
+            return fit(node, offer) + offerScore + sticky(node, offer, now);
+        }
+
+        // 0..1
+        static double fit(Node node, OfferView offer) {
+            double cpus = offer.cpus > 0 ? Math.min(node.cpus / offer.cpus, 1) : 1;
+            double mem = offer.mem > 0 ? Math.min((double) node.mem / offer.mem, 1) : 1;
+            return (cpus + mem) / 2;
+        }
+
+        // 0..1, 1 - no other nodes share hostname or attribute values of offer
+        static double spread(OfferView offer, Map<String, Collection<String>> otherAttributes) {
+            double spread = 0;
+
+            for (String name : offer.attributes.keySet()) {
+                spread += 1.0 / (1 + count(otherAttributes.get(name), offer.attributes.get(name)));
+            }
+
+            return spread / offer.attributes.size();
+        }
+
+        // values of nodes keep counts
+        private static int count(Collection<String> values, String value) {
+            if (values == null) return 0;
+            if (values instanceof Nodes.AttributeValues) return ((Nodes.AttributeValues) values).count(value);
+            return Collections.frequency(values, value);
+        }
+
+        // 0 or 1, 1 - offer is from the host the node is sticky to
+        static double sticky(Node node, OfferView offer, Date now) {
+            Node.Stickiness stickiness = node.stickiness;
+            String hostname = stickiness.hostname;
+
+            boolean sticky = hostname != null && stickiness.stopTime != null && now.before(stickiness.expires());
+            return sticky && hostname.equals(offer.offer.hostname()) ? 1 : 0;
+        }
+
+        public String toString() { return "best-fit"; }
+    }
+}
@@ -0,0 +1,63 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.Range;
+
+import java.util.*;
+
+// allocates ports from free intervals kept sorted by start: start -> end (inclusive)
+public class PortAllocator {
+    private TreeMap<Integer, Integer> free = new TreeMap<>();
+
+    public PortAllocator(Collection<Range> ranges) {
+        for (Range range : ranges) release(range.start(), range.end());
+    }
+
+    public boolean isFree(int port) {
+        Map.Entry<Integer, Integer> interval = free.floorEntry(port);
+        return interval != null && interval.getValue() >= port;
+    }
+
+    // allocates specified port, returns -1 if it is not free
+    public int allocate(int port) {
+        Map.Entry<Integer, Integer> interval = free.floorEntry(port);
+        if (interval == null || interval.getValue() < port) return -1;
+
+        int start = interval.getKey(), end = interval.getValue();
+        free.remove(start);
+        if (start < port) free.put(start, port - 1);
+        if (port < end) free.put(port + 1, end);
+
+        return port;
+    }
+
+    // allocates lowest free port, returns -1 if there are no free ports
+    public int allocate() {
+        if (free.isEmpty()) return -1;
+        return allocate(free.firstKey());
+    }
+
+    private void release(int start, int end) {
+        // merge with overlapping or adjacent intervals
+        Map.Entry<Integer, Integer> prev = free.floorEntry(start);
+        if (prev != null && prev.getValue() >= start - 1) {
+            start = prev.getKey();
+            end = Math.max(end, prev.getValue());
+            free.remove(prev.getKey());
+        }
+
+        for (Map.Entry<Integer, Integer> next = free.ceilingEntry(start); next != null && next.getKey() <= end + 1; next = free.ceilingEntry(start)) {
+            end = Math.max(end, next.getValue());
+            free.remove(next.getKey());
+        }
+
+        free.put(start, end);
+    }
+
+    public List<Range> ranges() {
+        List<Range> ranges = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> interval : free.entrySet()) ranges.add(new Range(interval.getKey(), interval.getValue()));
+        return ranges;
+    }
+
+    public String toString() { return "" + ranges(); }
+}
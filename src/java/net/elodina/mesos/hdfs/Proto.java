@@ -0,0 +1,76 @@
+package net.elodina.mesos.hdfs;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+// protobuf wire format helpers for binary encoding of state (no generated classes)
+class Proto {
+    private Proto() {}
+
+    interface Writer { void write(CodedOutputStream out) throws IOException; }
+
+    // returns false if field is unknown
+    interface Reader { boolean read(int field, CodedInputStream in) throws IOException; }
+
+    static byte[] bytes(Writer writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            writer.write(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    static void read(byte[] bytes, Reader reader) {
+        CodedInputStream in = CodedInputStream.newInstance(bytes);
+        try {
+            for (int tag = in.readTag(); tag != 0; tag = in.readTag())
+                if (!reader.read(WireFormat.getTagFieldNumber(tag), in)) in.skipField(tag);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid binary data", e);
+        }
+    }
+
+    static void writeString(CodedOutputStream out, int field, String value) throws IOException {
+        if (value != null) out.writeString(field, value);
+    }
+
+    static void writeMessage(CodedOutputStream out, int field, byte[] message) throws IOException {
+        out.writeBytes(field, ByteString.copyFrom(message));
+    }
+
+    // map entry: 1 - key, 2 - value
+    static void writeMap(CodedOutputStream out, int field, Map<String, ?> map) throws IOException {
+        for (final Map.Entry<String, ?> entry : map.entrySet())
+            writeMessage(out, field, bytes(new Writer() {
+                public void write(CodedOutputStream out) throws IOException {
+                    out.writeString(1, entry.getKey());
+                    out.writeString(2, "" + entry.getValue());
+                }
+            }));
+    }
+
+    static String[] readEntry(CodedInputStream in) throws IOException {
+        final String[] entry = new String[2];
+        read(in.readBytes().toByteArray(), new Reader() {
+            public boolean read(int field, CodedInputStream in) throws IOException {
+                if (field != 1 && field != 2) return false;
+                entry[field - 1] = in.readString();
+                return true;
+            }
+        });
+        return entry;
+    }
+
+    static byte[] readMessage(CodedInputStream in) throws IOException { return in.readBytes().toByteArray(); }
+}
@@ -2,19 +2,20 @@ package net.elodina.mesos.hdfs;
 
 import net.elodina.mesos.api.*;
 import net.elodina.mesos.api.driver.SchedulerDriver;
-import net.elodina.mesos.api.driver.SchedulerDriverV0;
-import net.elodina.mesos.api.driver.SchedulerDriverV1;
 import net.elodina.mesos.util.IO;
 import net.elodina.mesos.util.Period;
 import net.elodina.mesos.util.Strings;
 import net.elodina.mesos.util.Version;
 import org.apache.log4j.*;
+import org.json.simple.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static net.elodina.mesos.api.Message.shortId;
 
@@ -25,18 +26,25 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
     public Config config = new Config();
     private Reconciler reconciler = new Reconciler();
 
-    private SchedulerDriver driver;
+    public Reconciler reconciler() { return reconciler; }
+    private DeclineFilter declineFilter = new DeclineFilter();
+
+    public DeclineFilter declineFilter() { return declineFilter; }
+
+    private volatile Driver driver;
+    private volatile boolean suppressed;
 
     @Override
     public void subscribed(SchedulerDriver driver, String id, Master master) {
         logger.info("[subscribed] framework:" + shortId(id) + (master != null ? ", master:[" + master.toString(true) + "]" : ""));
-        this.driver = driver;
+        this.driver = (Driver) driver;
+        suppressed = false;
 
         checkMesosVersion(master);
         reconciler.start(driver, new Date());
 
         Nodes.frameworkId = id;
-        Nodes.save();
+        Nodes.flush();
     }
 
     @Override
@@ -51,6 +59,8 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
     public void status(Task.Status status) {
         logger.info("[status] " + status.toString(true));
         onTaskStatus(status);
+        reconciler.checkFinished(new Date());
+        Nodes.save();
     }
 
     @Override
@@ -66,65 +76,188 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
 
     private void onOffers(List<Offer> offers) {
         // start nodes
-        for (Offer offer : offers) {
-            String reason = acceptOffer(offer);
+        List<String> reasons = acceptOffers(offers);
+        for (int i = 0; i < offers.size(); i++) {
+            Offer offer = offers.get(i);
+            String reason = reasons.get(i);
 
             if (reason != null) {
-                logger.info("Declined offer " + shortId(offer.id()) + ": " + reason);
-                driver.declineOffer(offer.id());
-            }
+                // reconciliation proceeds on offers, so slaves are not filtered for long while it is active;
+                // slave of offer, unused only because nodes fit other offers, may well fit nodes next time
+                boolean escalate = !reconciler.isActive() && !reason.equals(PLACED_ON_OTHER_OFFERS);
+                Period refuse = escalate ? declineFilter.refuse(offer.slaveId()) : declineFilter.getDelay();
+                logger.info("Declined offer " + shortId(offer.id()) + " for " + refuse + ": " + reason);
+                driver.declineOffer(offer.id(), refuse);
+            } else
+                declineFilter.reset(offer.slaveId());
         }
 
-        // stop nodes
-        for (Node node : Nodes.getNodes(Node.State.STOPPING)) {
-            if (node.runtime == null) {
-                node.state = Node.State.IDLE;
-                continue;
-            }
+        // stop nodes, not stopped when driver was disconnected
+        for (Node node : Nodes.getNodes(Node.State.STOPPING)) stopNode(node);
 
-            if (!node.runtime.killSent) {
-                driver.killTask(node.runtime.taskId);
-                node.runtime.killSent = true;
-            }
+        reconciler.proceed(driver, new Date());
+
+        if (!hasPendingNodes() && !suppressed) {
+            logger.info("No pending nodes, suppressing offers");
+            driver.suppressOffers();
+            suppressed = true;
         }
 
-        reconciler.proceed(driver, new Date());
         Nodes.save();
     }
 
-    String acceptOffer(Offer offer) {
-        if (reconciler.isActive()) return "reconciling";
+    boolean hasPendingNodes() {
+        for (Node.State state : Arrays.asList(Node.State.STARTING, Node.State.STOPPING, Node.State.RECONCILING))
+            if (Nodes.countNodes(state) > 0) return true;
+
+        return false;
+    }
+
+    // kills task of stopping node, node without task is stopped at once
+    void stopNode(Node node) {
+        if (node.getState() != Node.State.STOPPING) return;
 
+        if (node.runtime == null) {
+            node.setState(Node.State.IDLE);
+            return;
+        }
+
+        Driver driver = this.driver;
+        if (driver == null || node.runtime.killSent) return;
+
+        driver.killTask(node.runtime.taskId);
+        node.runtime.killSent = true;
+        Nodes.markDirty(node);
+    }
+
+    void nodeStateChanged(Node node) {
+        if (driver == null) return;
+        Node.State state = node.getState();
+
+        if (state == Node.State.STOPPING) {
+            stopNode(node);
+            return;
+        }
+
+        // new node to start, tasks to reconcile on offers or namenode became available to datanodes
+        boolean revive = state == Node.State.STARTING || state == Node.State.RECONCILING || node.type == Node.Type.NAMENODE && state == Node.State.RUNNING;
+        revive = revive && !declineFilter.isEmpty() || suppressed && hasPendingNodes();
+        if (!revive) return;
+
+        logger.info("Node " + node.id + " is " + state.name().toLowerCase() + ", reviving offers");
+        declineFilter.reset();
+        suppressed = false;
+        driver.reviveOffers();
+    }
+
+    static final String PLACED_ON_OTHER_OFFERS = "nodes are placed on other offers";
+
+    String acceptOffer(Offer offer) { return acceptOffers(Arrays.asList(offer)).get(0); }
+
+    // assigns pending nodes over the whole batch of offers, best scored node/offer pair first;
+    // returns decline reason for each offer, null if offer is accepted
+    List<String> acceptOffers(List<Offer> offers) {
         List<Node> nodes = new ArrayList<>();
         for (Node node : Nodes.getNodes(Node.State.STARTING))
             if (node.runtime == null && !node.failover.isWaitingDelay(new Date()))
                 nodes.add(node);
 
-        if (nodes.isEmpty()) return "nothing to start";
+        if (nodes.isEmpty()) return Collections.nCopies(offers.size(), "nothing to start");
+
+        // pack as many nodes as offers fit, carving each reservation out of the remaining resources
+        List<List<String>> reasons = new ArrayList<>();
+        List<List<Node>> launched = new ArrayList<>();
+        Date now = new Date();
+
+        // offer views are shared by all nodes, rebuilt only after a node is packed
+        List<OfferView> remaining = new ArrayList<>();
+        for (Offer offer : offers) {
+            remaining.add(new OfferView(excludeReconciling(offer)));
+            reasons.add(new ArrayList<String>());
+            launched.add(new ArrayList<Node>());
+        }
 
-        List<String> reasons = new ArrayList<>();
-        for (Node node : nodes) {
-            String reason = node.matches(offer, otherAttributes());
-            if (reason != null) reasons.add("node " + node.id + ": " + reason);
-            else {
-                launchTask(node, offer);
-                return null;
+        // taken once, nodes placed by the batch are added as they are placed
+        Nodes.Attributes otherAttributes = otherAttributes();
+        Placement placement = config.placement;
+
+        // launch best scored matching pair, until no node matches the rest of offers
+        for (boolean first = true; ; first = false) {
+            Node bestNode = null;
+            int bestOffer = -1;
+            double bestScore = 0;
+
+            for (int i = 0; i < remaining.size(); i++) {
+                OfferView offer = remaining.get(i);
+                Double offerScore = null;
+
+                for (Node node : nodes) {
+                    String reason = node.matches(offer, otherAttributes, now);
+                    if (reason != null) {
+                        if (first) reasons.get(i).add("node " + node.id + ": " + reason);
+                        continue;
+                    }
+
+                    // ties are resolved by offer, then node list order
+                    if (offerScore == null) offerScore = placement.offerScore(offer, otherAttributes);
+                    double score = placement.score(node, offer, offerScore, now);
+                    if (bestNode == null || score > bestScore) { bestNode = node; bestOffer = i; bestScore = score; }
+                }
             }
+
+            if (bestNode == null) break;
+
+            OfferView offer = remaining.get(bestOffer);
+            bestNode.initRuntime(offer);
+            otherAttributes.add(bestNode);
+            remaining.set(bestOffer, new OfferView(bestNode.reservation.subtractFrom(offer.offer)));
+            nodes.remove(bestNode);
+            launched.get(bestOffer).add(bestNode);
+        }
+
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < offers.size(); i++) {
+            if (!launched.get(i).isEmpty()) {
+                launchTasks(launched.get(i), offers.get(i));
+                result.add(null);
+            } else if (!reasons.get(i).isEmpty())
+                result.add(Strings.join(reasons.get(i), ", "));
+            else
+                result.add(PLACED_ON_OTHER_OFFERS);
         }
 
-        return Strings.join(reasons, ", ");
+        return result;
+    }
+
+    // tasks that are not reconciled yet may still hold their resources on the slave
+    Offer excludeReconciling(Offer offer) {
+        Offer result = offer;
+
+        for (Node node : Nodes.getNodes(Node.State.RECONCILING))
+            if (node.runtime != null && node.reservation != null && offer.slaveId() != null && offer.slaveId().equals(node.runtime.slaveId))
+                result = node.reservation.subtractFrom(result);
+
+        return result;
     }
 
     void launchTask(Node node, Offer offer) {
         node.initRuntime(offer);
-        Task task = node.newTask();
+        launchTasks(Arrays.asList(node), offer);
+    }
 
-        driver.launchTask(offer.id(), task);
-        logger.info("Starting node " + node.id + " with task " + shortId(node.runtime.taskId) + " with offer " + shortId(offer.id()));
+    void launchTasks(List<Node> nodes, Offer offer) {
+        List<Task> tasks = new ArrayList<>();
+        for (Node node : nodes) tasks.add(node.newTask());
+
+        driver.launchTasks(offer.id(), tasks);
+        for (Node node : nodes)
+            logger.info("Starting node " + node.id + " with task " + shortId(node.runtime.taskId) + " with offer " + shortId(offer.id()));
+
+        Nodes.flush();
     }
 
     void onTaskStatus(Task.Status status) {
-        Node node = getNodeByTaskId(status.id());
+        Node node = Nodes.getNodeByTaskId(status.id());
 
         switch (status.state()) {
             case RUNNING:
@@ -140,7 +273,7 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
     }
 
     void onTaskStarted(Node node, Task.Status status) {
-        boolean expectedState = node != null && Arrays.asList(Node.State.STARTING, Node.State.RUNNING, Node.State.RECONCILING).contains(node.state);
+        boolean expectedState = node != null && Arrays.asList(Node.State.STARTING, Node.State.RUNNING, Node.State.RECONCILING).contains(node.getState());
         if (!expectedState) {
             String id = node != null ? node.id : "<unknown>";
             logger.info("Got " + status.state() + " for node " + id + ", killing task");
@@ -148,22 +281,22 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
             return;
         }
 
-        if (node.state == Node.State.RECONCILING)
+        if (node.getState() == Node.State.RECONCILING)
             logger.info("Finished reconciling of node " + node.id + ", task " + shortId(node.runtime.taskId));
 
-        node.state = Node.State.RUNNING;
+        node.setState(Node.State.RUNNING);
         node.registerStart(node.runtime.hostname);
     }
 
     void onTaskStopped(Node node, Task.Status status) {
-        boolean expectedState = node != null && node.state != Node.State.IDLE;
+        boolean expectedState = node != null && node.getState() != Node.State.IDLE;
         if (!expectedState) {
             String id = node != null ? node.id : "<unknown>";
             logger.info("Got " + status.state() + " for node " + id + ", ignoring it");
             return;
         }
 
-        boolean stopping = node.state == Node.State.STOPPING;
+        boolean stopping = node.getState() == Node.State.STOPPING;
 
         boolean failed = !stopping && status.state() != Task.State.FINISHED && status.state() != Task.State.KILLED;
         node.registerStop(new Date(), failed);
@@ -171,11 +304,16 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         if (failed) {
             if (node.failover.isMaxTriesExceeded()) stopping = true;
             logger.info(failureMessage(node));
+
+            Nodes.Event event = new Nodes.Event(Nodes.Event.Type.FAILURE, node);
+            event.message = "task " + status.state().name().toLowerCase() + (status.message() != null ? ": " + status.message() : "") + ", " + failureMessage(node);
+            Nodes.fireEvent(event);
         }
 
-        node.state = stopping ? Node.State.IDLE : Node.State.STARTING;
+        node.setState(stopping ? Node.State.IDLE : Node.State.STARTING);
         node.runtime = null;
         node.reservation = null;
+        Nodes.runtimeChanged(node);
     }
 
     private String failureMessage(Node node) {
@@ -194,34 +332,7 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         return s;
     }
 
-    private Node getNodeByTaskId(String taskId) {
-        for (Node node : Nodes.getNodes())
-            if (node.runtime != null && node.runtime.taskId.equals(taskId))
-                return node;
-
-        return null;
-    }
-
-    Map<String, Collection<String>> otherAttributes() {
-        class Result {
-            Map<String, Collection<String>> map = new HashMap<>();
-            void add(String name, String value) {
-                if (!map.containsKey(name)) map.put(name, new ArrayList<String>());
-                map.get(name).add(value);
-            }
-        }
-        Result result = new Result();
-
-        for (Node node : Nodes.getNodes()) {
-            if (node.runtime == null) continue;
-
-            result.add("hostname", node.runtime.hostname);
-            for (String name : node.runtime.attributes.keySet())
-                result.add(name, node.runtime.attributes.get(name));
-        }
-
-        return result.map;
-    }
+    Nodes.Attributes otherAttributes() { return Nodes.getAttributes(); }
 
     void checkMesosVersion(Master master) {
         if (master == null) return;
@@ -263,8 +374,8 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         }
 
         SchedulerDriver driver = config.driverV1()
-            ? new SchedulerDriverV1(Scheduler.$, framework, config.master)
-            : new SchedulerDriverV0(Scheduler.$, framework, config.master, cred);
+            ? new Driver.V1(Scheduler.$, framework, config.master)
+            : new Driver.V0(Scheduler.$, framework, config.master, cred);
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
@@ -272,6 +383,12 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
 
                 try { server.stop(); }
                 catch (Exception e) { logger.warn("", e); }
+
+                try { Nodes.flush(); }
+                catch (Exception e) { logger.warn("", e); }
+
+                logger.info("Storage saves: " + Nodes.storage.saves + ", loads: " + Nodes.storage.loads);
+                Nodes.storage.close();
             }
         });
 
@@ -344,15 +461,62 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         public boolean debug;
         public String api;
         public String storage = "file:hdfs-mesos.json";
+        public Placement placement = Placement.BEST_FIT;
 
-        public String jarMask = "hdfs-mesos-.*jar";
+        public String jarMask = "hdfs-mesos-\\d.*jar";
+        public String executorJarMask = "hdfs-mesos-executor-.*jar";
         public String hadoopMask = "hadoop-.*gz";
         public String jreMask;
 
         public File jar;
+        // executor-only jar, null - executor is launched from jar
+        public File executorJar;
+        // slim hdfs-only archive if hadoopSlim, otherwise same as hadoopFull
         public File hadoop;
+        public File hadoopFull;
         public File jre;
 
+        public boolean hadoopSlim = true;
+
+        // resolved files published by content hash: sha256 -> artifact; read by http threads
+        public Map<String, Artifact> artifacts = new ConcurrentHashMap<>();
+
+        // slave dir keeping extracted hadoop distributions, null - extracted by fetcher into sandbox
+        public String hadoopCache;
+
+        // content-addressed url, so fetcher may cache it; by name if file is not published
+        public String artifactUrl(File file, String legacyPath) {
+            String hash = artifactHash(file);
+            return hash != null ? api + "/artifact/" + hash + "/" + file.getName() : api + legacyPath + file.getName();
+        }
+
+        public File executorJar() { return executorJar != null ? executorJar : jar; }
+
+        public boolean isPublished(File file) { return artifactHash(file) != null; }
+
+        // changed file is republished by its new hash, null if it is not published or can't be hashed
+        public synchronized String artifactHash(File file) {
+            for (Artifact artifact : artifacts.values()) {
+                if (!artifact.file.equals(file)) continue;
+                if (!artifact.isChanged()) return artifact.hash;
+
+                artifacts.remove(artifact.hash);
+                try { return publish(file).hash; }
+                catch (Cli.Error e) {
+                    logger.warn("Can't republish changed " + file + ", serving it by name: " + e.getMessage());
+                    return null;
+                }
+            }
+
+            return null;
+        }
+
+        synchronized Artifact publish(File file) {
+            Artifact artifact = new Artifact(file);
+            artifacts.put(artifact.hash, artifact);
+            return artifact;
+        }
+
         public int apiPort() {
             try {
                 int port = new URI(api).getPort();
@@ -379,13 +543,24 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
             if (hadoop == null) throw new Cli.Error(hadoopMask + " not found in current dir");
             checkHadoopVersion();
 
+            hadoopFull = hadoop;
+            if (hadoopSlim)
+                try { hadoop = SlimHadoop.build(hadoopFull, new File("hdfs-mesos-slim")); }
+                catch (IOException | InterruptedException e) { logger.warn("Can't build slim hadoop, using " + hadoopFull, e); }
+
             jar = IO.findFile(new File("."), jarMask);
             if (jar == null) throw new Cli.Error(jarMask + " not found in current dir");
 
+            executorJar = IO.findFile(new File("."), executorJarMask);
+            if (executorJar == null) logger.warn(executorJarMask + " not found in current dir, executor is launched from " + jar);
+
             if (jreMask != null) {
                 jre = IO.findFile(new File("."), jreMask);
                 if (jre == null) throw new Cli.Error(jreMask + " not found in current dir");
             }
+
+            for (File file : new LinkedHashSet<>(Arrays.asList(jar, executorJar, hadoop, hadoopFull, jre)))
+                if (file != null) publish(file);
         }
 
         private void checkHadoopVersion() {
@@ -406,8 +581,8 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         public String toString() {
             String s = "";
 
-            s += "api: " + api;
-            s += "\nfiles: jar:" + jar + ", hadoop:" + hadoop + (jre != null ? ", jre:" + jre : "");
+            s += "api: " + api + ", placement: " + placement;
+            s += "\nfiles: jar:" + jar + (executorJar != null ? ", executor-jar:" + executorJar : "") + ", hadoop:" + hadoop + (jre != null ? ", jre:" + jre : "") + (hadoopCache != null ? ", hadoop-cache:" + hadoopCache : "");
 
             s += "\nmesos: driver:" + driver + ", master:" + master + ", user:" + (user == null ? "<default>" : user);
             s += ", principal:" + (principal == null ? "<none>" : principal) + ", secret:" + (secret == null ? "<none>" : "******");
@@ -418,14 +593,81 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         }
     }
 
+    // file published by content hash; content is immutable while file is unchanged
+    public static class Artifact {
+        public final File file;
+        public final String hash;
+        public final long length;
+        public final long lastModified;
+
+        public Artifact(File file) {
+            this.file = file;
+            length = file.length();
+            lastModified = file.lastModified();
+            try { hash = Hashes.sha256(file); }
+            catch (IOException e) { throw new Cli.Error("Can't read " + file + ": " + e); }
+        }
+
+        public boolean isChanged() { return file.length() != length || file.lastModified() != lastModified; }
+    }
+
+    public static class DeclineFilter {
+        private Period delay;
+        private Period maxDelay;
+
+        private Map<String, Integer> declines = new HashMap<>();
+
+        public DeclineFilter() { this(new Period("5s"), new Period("2m")); }
+
+        public DeclineFilter(Period delay, Period maxDelay) {
+            this.delay = delay;
+            this.maxDelay = maxDelay;
+        }
+
+        public Period getDelay() { return delay; }
+
+        public synchronized boolean isEmpty() { return declines.isEmpty(); }
+
+        public synchronized int getDeclines(String slaveId) {
+            Integer count = declines.get(slaveId);
+            return count != null ? count : 0;
+        }
+
+        // registers decline, returns refuse period growing with consecutive declines of slave offers
+        public synchronized Period refuse(String slaveId) {
+            int count = getDeclines(slaveId) + 1;
+            declines.put(slaveId, count);
+
+            int multiplier = 1 << Math.min(30, count - 1);
+            long d = delay.ms() * multiplier;
+
+            return d > maxDelay.ms() ? maxDelay : new Period(delay.value() * multiplier + delay.unit());
+        }
+
+        public synchronized void reset(String slaveId) { declines.remove(slaveId); }
+
+        public synchronized void reset() { declines.clear(); }
+    }
+
     public static class Reconciler {
         private Period delay;
+        private Period maxDelay = new Period("5m");
         private int maxTries;
+        // max task ids in one explicit reconcile call
+        private int batchSize = 100;
+        // delay is randomized by +-jitter share
+        private double jitter = 0.2;
+        private Random random = new Random();
 
         private int tries;
         private Date lastTry;
+        private Date nextTry;
+
+        private int total;
+        private Date startTime;
+        private Date finishTime;
 
-        public Reconciler() { this(new Period("30s"), 3); }
+        public Reconciler() { this(new Period("10s"), 5); }
 
         public Reconciler(Period delay, int maxTries) {
             this.delay = delay;
@@ -435,29 +677,51 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         public Period getDelay() { return delay; }
         public int getMaxTries() { return maxTries; }
 
+        public Period getMaxDelay() { return maxDelay; }
+        public void setMaxDelay(Period maxDelay) { this.maxDelay = maxDelay; }
+
+        public int getBatchSize() { return batchSize; }
+        public void setBatchSize(int batchSize) { this.batchSize = batchSize; }
+
+        public double getJitter() { return jitter; }
+        public void setJitter(double jitter) { this.jitter = jitter; }
+
         public int getTries() { return tries; }
         public Date getLastTry() { return lastTry; }
+        public Date getNextTry() { return nextTry; }
 
-        public boolean isActive() { return Nodes.getNodes(Node.State.RECONCILING).size() > 0; }
+        public boolean isActive() { return Nodes.countNodes(Node.State.RECONCILING) > 0; }
 
-        public void start(SchedulerDriver driver, Date now) {
+        public synchronized void start(SchedulerDriver driver, Date now) {
             tries = 1;
             lastTry = now;
+            nextTry = new Date(now.getTime() + currentDelay());
+
+            total = 0;
+            startTime = now;
+            finishTime = null;
 
             for (Node node : Nodes.getNodes()) {
                 if (node.runtime == null) continue;
 
-                node.state = Node.State.RECONCILING;
+                node.setState(Node.State.RECONCILING);
                 logger.info("Reconciling " + tries + "/" + maxTries + " state of node " + node.id + ", task " + shortId(node.runtime.taskId));
+                total++;
             }
 
             driver.reconcileTasks(Collections.<String>emptyList());
         }
 
-        public void proceed(SchedulerDriver driver, Date now) {
+        // completes reconciliation once every task reported its state
+        public synchronized void checkFinished(Date now) {
+            if (lastTry != null && !isActive()) finish(now);
+        }
+
+        public synchronized void proceed(SchedulerDriver driver, Date now) {
+            checkFinished(now);
             if (lastTry == null) return;
 
-            if (now.getTime() - lastTry.getTime() < delay.ms())
+            if (now.getTime() < nextTry.getTime())
                 return;
 
             tries += 1;
@@ -469,24 +733,68 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
 
                     logger.info("Reconciling exceeded " + maxTries + " tries for node " + node.id + ", sending killTask for task " + shortId(node.runtime.taskId));
                     driver.killTask(node.runtime.taskId);
+
+                    Nodes.Event event = new Nodes.Event(Nodes.Event.Type.FAILURE, node);
+                    event.message = "reconciling exceeded " + maxTries + " tries, task killed";
+                    Nodes.fireEvent(event);
+
                     node.runtime = null;
-                    node.state = Node.State.STARTING;
+                    Nodes.runtimeChanged(node);
+                    node.setState(Node.State.STARTING);
                 }
 
-                tries = 0;
-                lastTry = null;
+                finish(now);
                 return;
             }
 
-            List<String> ids = new ArrayList<>();
+            nextTry = new Date(now.getTime() + currentDelay());
 
+            List<String> ids = new ArrayList<>();
             for (Node node : Nodes.getNodes(Node.State.RECONCILING)) {
                 if (node.runtime == null) continue;
                 logger.info("Reconciling " + tries + "/" + maxTries + " state of node " + node.id + ", task " + shortId(node.runtime.taskId));
                 ids.add(node.runtime.taskId);
             }
 
-            if (!ids.isEmpty()) driver.reconcileTasks(ids);
+            for (int i = 0; i < ids.size(); i += batchSize)
+                driver.reconcileTasks(ids.subList(i, Math.min(i + batchSize, ids.size())));
+        }
+
+        private void finish(Date now) {
+            if (finishTime == null)
+                logger.info("Reconciling finished in " + (now.getTime() - startTime.getTime()) + "ms, " + tries + " tries");
+
+            tries = 0;
+            lastTry = null;
+            nextTry = null;
+            finishTime = now;
+        }
+
+        // exponential backoff of current try with jitter
+        long currentDelay() {
+            int multiplier = 1 << Math.min(30, Math.max(0, tries - 1));
+            long d = Math.min(delay.ms() * multiplier, maxDelay.ms());
+            return (long) (d * (1 + jitter * (2 * random.nextDouble() - 1)));
+        }
+
+        @SuppressWarnings("unchecked")
+        public synchronized JSONObject toJson() {
+            JSONObject json = new JSONObject();
+
+            json.put("active", lastTry != null);
+            json.put("tries", tries);
+            json.put("maxTries", maxTries);
+
+            json.put("total", total);
+            json.put("remaining", Nodes.countNodes(Node.State.RECONCILING));
+
+            if (startTime != null) {
+                json.put("startTime", startTime.getTime());
+                json.put("duration", (finishTime != null ? finishTime.getTime() : System.currentTimeMillis()) - startTime.getTime());
+            }
+            if (nextTry != null) json.put("nextTry", nextTry.getTime());
+
+            return json;
         }
     }
 }
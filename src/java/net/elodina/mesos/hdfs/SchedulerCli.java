@@ -17,7 +17,8 @@ public class SchedulerCli {
 
         OptionParser parser = new OptionParser();
         parser.accepts("api", "Binding host:port for http/artifact server.").withRequiredArg().ofType(String.class);
-        parser.accepts("storage", " Storage for cluster state.\nDefault - " + config.storage + ".\nExamples:\n  file:hdfs-mesos.json;\n  zk:master:2181/hdfs-mesos;\n  zk:m1:2181,m2:2181/hdfs-mesos;").withRequiredArg().ofType(String.class);
+        parser.accepts("storage", " Storage for cluster state.\nDefault - " + config.storage + ".\nExamples:\n  file:hdfs-mesos.json;\n  zk:master:2181/hdfs-mesos;\n  zk:m1:2181,m2:2181/hdfs-mesos;\nUse file+binary: or zk+binary: for compact binary encoding.").withRequiredArg().ofType(String.class);
+        parser.accepts("placement", "Node placement (best-fit, first-fit). Default - " + config.placement + ".").withRequiredArg().ofType(String.class);
 
         parser.accepts("debug", "Enable debug logging. Default - false").withRequiredArg().ofType(Boolean.class);
         parser.accepts("driver", "Mesos driver version (v0, v1). Default - " + config.driver).withRequiredArg().ofType(String.class);
@@ -30,9 +31,12 @@ public class SchedulerCli {
         parser.accepts("framework-role", "Framework role. Default- " + config.frameworkRole + ".").withRequiredArg().ofType(String.class);
         parser.accepts("framework-timeout", "Framework failover timeout. Default - " + config.frameworkTimeout + ".").withRequiredArg().ofType(String.class);
 
-        parser.accepts("jar", "hdfs-mesos jar mask (hdfs-mesos-.*jar). Default - " + config.jarMask + ".").withRequiredArg().ofType(String.class);
+        parser.accepts("jar", "hdfs-mesos jar mask (hdfs-mesos-\\d.*jar). Default - " + config.jarMask + ".").withRequiredArg().ofType(String.class);
+        parser.accepts("executor-jar", "Executor jar mask (hdfs-mesos-executor-.*jar), hdfs-mesos jar is used if not found. Default - " + config.executorJarMask + ".").withRequiredArg().ofType(String.class);
         parser.accepts("hadoop", "Hadoop archive mask (hadoop-.*gz). Default - " + config.hadoopMask + ".").withRequiredArg().ofType(String.class);
         parser.accepts("jre", "JRE archive mask (jre*.zip). Default - none.").withRequiredArg().ofType(String.class);
+        parser.accepts("hadoop-slim", "Serve hdfs-only hadoop archive built from original one (available at /hadoop-full/). Default - " + config.hadoopSlim + ".").withRequiredArg().ofType(Boolean.class);
+        parser.accepts("hadoop-cache", "Slave dir to keep extracted hadoop in, shared by executors of the slave. Default - none (extracted into sandbox).").withRequiredArg().ofType(String.class);
 
         if (help) {
             printLine("Generic Options");
@@ -65,6 +69,12 @@ public class SchedulerCli {
             try { Storage.byUri(storage); }
             catch (IllegalArgumentException e) { throw new Error("invalid storage"); }
 
+        String placement = (String) options.valueOf("placement");
+        if (placement == null) placement = defaults.get("placement");
+        if (placement != null)
+            try { Placement.byName(placement); }
+            catch (IllegalArgumentException e) { throw new Error("invalid placement"); }
+
         Boolean debug = (Boolean) options.valueOf("debug");
         if (debug == null && defaults.containsKey("debug")) debug = Boolean.valueOf(defaults.get("debug"));
         if (debug != null) config.debug = debug;
@@ -104,14 +114,24 @@ public class SchedulerCli {
         String jar = (String) options.valueOf("jar");
         if (jar == null) jar = defaults.get("jar");
 
+        String executorJar = (String) options.valueOf("executor-jar");
+        if (executorJar == null) executorJar = defaults.get("executor-jar");
+
         String hadoop = (String) options.valueOf("hadoop");
         if (hadoop == null) hadoop = defaults.get("hadoop");
 
         String jre = (String) options.valueOf("jre");
         if (jre == null) jre = defaults.get("jre");
 
+        Boolean hadoopSlim = (Boolean) options.valueOf("hadoop-slim");
+        if (hadoopSlim == null && defaults.containsKey("hadoop-slim")) hadoopSlim = Boolean.valueOf(defaults.get("hadoop-slim"));
+
+        String hadoopCache = (String) options.valueOf("hadoop-cache");
+        if (hadoopCache == null) hadoopCache = defaults.get("hadoop-cache");
+
         config.api = api;
         if (storage != null) config.storage = storage;
+        if (placement != null) config.placement = Placement.byName(placement);
 
         if (driver != null) config.driver = driver;
         config.master = master;
@@ -124,8 +144,11 @@ public class SchedulerCli {
         if (frameworkTimeout != null) config.frameworkTimeout = new Period(frameworkTimeout);
 
         if (jar != null) config.jarMask = jar;
+        if (executorJar != null) config.executorJarMask = executorJar;
         if (hadoop != null) config.hadoopMask = hadoop;
         if (jre != null) config.jreMask = jre;
+        if (hadoopSlim != null) config.hadoopSlim = hadoopSlim;
+        if (hadoopCache != null) config.hadoopCache = hadoopCache;
 
         Scheduler.$.run();
     }
@@ -0,0 +1,98 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.IO;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+// hdfs-only hadoop archive: yarn, mapreduce, tools, docs & sources are removed
+public class SlimHadoop {
+    private static final Logger logger = Logger.getLogger(SlimHadoop.class);
+
+    // top level entries of distribution used by hdfs (1.x & 2.x layouts)
+    static final List<String> KEEP = Arrays.asList("bin", "sbin", "etc", "conf", "libexec", "lib", "share", "webapps");
+    // share/hadoop modules used by hdfs (2.x)
+    static final List<String> KEEP_MODULES = Arrays.asList("common", "hdfs");
+    // dirs not used at runtime, removed at any level
+    static final List<String> REMOVE_DIRS = Arrays.asList("sources", "jdiff", "doc");
+
+    private SlimHadoop() {}
+
+    // builds slim archive of same name in dir, reusing one built after archive was modified
+    public static File build(File archive, File dir) throws IOException, InterruptedException {
+        File slim = new File(dir, archive.getName());
+        if (slim.isFile() && slim.lastModified() >= archive.lastModified()) return slim;
+
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Can't create " + dir);
+
+        File tmpDir = new File(dir, "tmp");
+        if (tmpDir.exists()) IO.delete(tmpDir);
+        if (!tmpDir.mkdirs()) throw new IOException("Can't create " + tmpDir);
+
+        try {
+            tar(tmpDir, "-xzf", archive.getAbsolutePath());
+
+            File hadoopDir = IO.findDir(tmpDir, "hadoop-.*");
+            if (hadoopDir == null) throw new IOException("hadoop-* not found in " + archive);
+            prune(hadoopDir);
+
+            File tmpArchive = new File(dir, archive.getName() + ".tmp");
+            tar(tmpDir, "-czf", tmpArchive.getAbsolutePath(), hadoopDir.getName());
+            Files.move(tmpArchive.toPath(), slim.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            IO.delete(tmpDir);
+        }
+
+        logger.info("Built " + slim + " (" + slim.length() / 1024 + "K) from " + archive + " (" + archive.length() / 1024 + "K)");
+        return slim;
+    }
+
+    static void prune(File hadoopDir) throws IOException {
+        for (File file : listFiles(hadoopDir)) {
+            boolean keep = KEEP.contains(file.getName()) || file.getName().matches("hadoop-core-.*\\.jar");
+            if (!keep) IO.delete(file);
+        }
+
+        File modules = new File(hadoopDir, "share/hadoop");
+        if (new File(modules, "hdfs").isDirectory())
+            for (File module : listFiles(modules))
+                if (!KEEP_MODULES.contains(module.getName())) IO.delete(module);
+
+        removeDirs(hadoopDir);
+    }
+
+    private static void removeDirs(File dir) throws IOException {
+        for (File file : listFiles(dir)) {
+            if (!file.isDirectory()) continue;
+
+            if (REMOVE_DIRS.contains(file.getName())) IO.delete(file);
+            else removeDirs(file);
+        }
+    }
+
+    private static List<File> listFiles(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) throw new IOException("Can't list " + dir);
+        return Arrays.asList(files);
+    }
+
+    private static void tar(File dir, String... args) throws IOException, InterruptedException {
+        String[] cmd = new String[args.length + 1];
+        cmd[0] = "tar";
+        System.arraycopy(args, 0, cmd, 1, args.length);
+
+        Process process = new ProcessBuilder(cmd)
+            .directory(dir)
+            .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+
+        int code = process.waitFor();
+        if (code != 0) throw new IOException("tar " + args[0] + " failed: process exited with " + code);
+    }
+}
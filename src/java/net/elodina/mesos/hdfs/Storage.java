@@ -1,71 +1,264 @@
 package net.elodina.mesos.hdfs;
 
-import net.elodina.mesos.util.IO;
+import org.I0Itec.zkclient.IZkStateListener;
 import org.I0Itec.zkclient.ZkClient;
+import org.I0Itec.zkclient.exception.ZkBadVersionException;
+import org.I0Itec.zkclient.exception.ZkNoNodeException;
+import org.I0Itec.zkclient.exception.ZkNodeExistsException;
 import org.I0Itec.zkclient.serialize.BytesPushThroughSerializer;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.Stat;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOError;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
 
 public abstract class Storage {
     public static Storage file(File file) { return new FileStorage(file); }
     public static Storage zk(String zk) { return new ZkStorage(zk); }
 
     public static Storage byUri(String uri) {
-        // zk:master:2181/hdfs-mesos, file:hdfs-mesos.json
+        // zk:master:2181/hdfs-mesos, file:hdfs-mesos.json, file+binary:hdfs-mesos.bin
         int colonIdx = uri.indexOf(":");
         if (colonIdx == -1) throw new IllegalArgumentException(uri);
 
         String protocol = uri.substring(0, colonIdx);
         String value = uri.substring(colonIdx + 1);
+
+        Codec codec = Codec.JSON;
+        if (protocol.endsWith("+binary")) {
+            protocol = protocol.substring(0, protocol.length() - "+binary".length());
+            codec = Codec.BINARY;
+        }
+
+        Storage storage;
         switch (protocol) {
-            case "file": return new FileStorage(new File(value));
-            case "zk": return new ZkStorage(value);
+            case "file": storage = new FileStorage(new File(value)); break;
+            case "zk": storage = new ZkStorage(value); break;
             default: throw new IllegalArgumentException(uri);
         }
+
+        return storage.codec(codec);
     }
 
+    // codec used for writing, data is read with codec it was written by
+    protected Codec codec = Codec.JSON;
+
+    public Codec codec() { return codec; }
+    public Storage codec(Codec codec) { this.codec = codec; return this; }
+
+    public final Metrics saves = new Metrics();
+    public final Metrics loads = new Metrics();
+
     public abstract void save();
     public abstract void load();
     public abstract void clear();
 
+    // saves changed nodes & removals since last save, storages not tracking changes save everything
+    public void save(Collection<Node> changed, Collection<String> removed) { save(); }
+
+    public void close() {}
+
+    public static class Metrics {
+        private long count, totalMs, maxMs;
+
+        public synchronized void record(long ms) {
+            count++;
+            totalMs += ms;
+            maxMs = Math.max(maxMs, ms);
+        }
+
+        public synchronized long count() { return count; }
+        public synchronized long maxMs() { return maxMs; }
+        public synchronized long avgMs() { return count > 0 ? totalMs / count : 0; }
+
+        public synchronized String toString() { return "count:" + count + ", avg:" + avgMs() + "ms, max:" + maxMs + "ms"; }
+    }
+
+    // state is kept as snapshot file + journal of changes appended after it; load replays snapshot and journal.
+    // snapshot & journal records carry generation, so journal left by crash during compaction is not replayed over newer snapshot
     private static class FileStorage extends Storage {
-        private File file;
-        private FileStorage(File file) { this.file = file; }
+        private static final Logger logger = Logger.getLogger(FileStorage.class);
+        // journal records after which snapshot is rewritten and journal truncated
+        private static final int COMPACT_RECORDS = 100;
+
+        private File file, journal;
+        private int journalRecords;
+        private Codec journalCodec;
+        // generation of snapshot, -1 - unknown (not loaded or saved)
+        private long generation = -1;
+
+        private FileStorage(File file) {
+            this.file = file;
+            journal = new File(file.getPath() + ".journal");
+        }
+
+        @Override
+        public synchronized void save() {
+            long start = System.currentTimeMillis();
+            snapshot();
+            saves.record(System.currentTimeMillis() - start);
+        }
 
         @Override
-        public void save() {
-            JSONObject json = Nodes.toJson();
-            try { IO.writeFile(file, "" + json); }
-            catch (IOException e) { throw new IOError(e); }
+        public synchronized void save(Collection<Node> changed, Collection<String> removed) {
+            // records of different codecs can't be mixed in one journal
+            boolean compact = journalRecords >= COMPACT_RECORDS || !file.exists() || generation == -1 || journalRecords > 0 && journalCodec != codec;
+            if (compact) { save(); return; }
+            long start = System.currentTimeMillis();
+
+            Codec.State record = new Codec.State(Nodes.frameworkId, new ArrayList<>(changed));
+            record.removed.addAll(removed);
+            record.generation = generation;
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                boolean created = !journal.exists();
+                codec.writeRecord(bytes, record);
+                write(journal, bytes.toByteArray(), true);
+                if (created) syncDir(journal);
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+
+            journalRecords++;
+            journalCodec = codec;
+            saves.record(System.currentTimeMillis() - start);
         }
 
         @Override
-        public void load() {
-            if (!file.exists()) return;
+        public synchronized void load() {
+            if (!file.exists() && !journal.exists()) return;
+            long start = System.currentTimeMillis();
+
+            String frameworkId = null;
+            Map<String, Node> nodes = new LinkedHashMap<>();
+            Codec.Records records = new Codec.Records();
+            generation = 0;
+            try {
+                if (file.exists()) {
+                    byte[] bytes = Files.readAllBytes(file.toPath());
+                    Codec.State state = Codec.of(bytes).decodeState(bytes);
+
+                    frameworkId = state.frameworkId;
+                    generation = state.generation;
+                    for (Node node : state.nodes) nodes.put(node.id, node);
+                }
+
+                journalRecords = 0;
+                if (journal.exists()) {
+                    byte[] bytes = Files.readAllBytes(journal.toPath());
+                    journalCodec = Codec.of(bytes);
+                    records = journalCodec.readRecords(bytes);
+                }
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+
+            boolean stale = false;
+            for (Codec.State record : records) {
+                // written before current snapshot
+                if (record.generation != generation) { stale = true; continue; }
+
+                if (record.frameworkId != null) frameworkId = record.frameworkId;
+                for (Node node : record.nodes) nodes.put(node.id, node);
+                for (String id : record.removed) nodes.remove(id);
+                journalRecords++;
+            }
+
+            Nodes.setNodes(frameworkId, nodes.values());
 
-            JSONObject obj;
-            try { obj = (JSONObject) new JSONParser().parse(IO.readFile(file)); }
-            catch (ParseException | IOException e) { throw new IOError(e); }
+            // record torn by crash during append: appending after it would corrupt following records
+            if (records.torn) logger.warn("Ignoring incomplete journal record in " + journal);
+            if (stale) logger.warn("Ignoring journal records in " + journal + " preceding snapshot " + generation);
+            if (records.torn || stale) snapshot();
 
-            Nodes.fromJson(obj);
+            loads.record(System.currentTimeMillis() - start);
         }
 
         @Override
-        public void clear() {
-            if (!file.exists()) return;
-            if (!file.delete()) throw new IOError(new IOException("failed to delete " + file));
+        public synchronized void clear() {
+            for (File f : Arrays.asList(file, journal)) {
+                if (!f.exists()) continue;
+                if (!f.delete()) throw new IOError(new IOException("failed to delete " + f));
+            }
+            journalRecords = 0;
+            generation = -1;
+        }
+
+        private void snapshot() {
+            Codec.State state = new Codec.State(Nodes.frameworkId, Nodes.snapshot());
+            // records of previous generation are skipped on load, if crash leaves journal
+            state.generation = Math.max(generation, 0) + 1;
+
+            // write to tmp file and rename it, so crash can't leave truncated snapshot
+            File tmp = new File(file.getPath() + ".tmp");
+            try {
+                write(tmp, codec.encode(state), false);
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                syncDir(file);
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+
+            generation = state.generation;
+            if (journal.exists() && !journal.delete()) throw new IOError(new IOException("failed to delete " + journal));
+            journalRecords = 0;
+        }
+
+        private static void write(File file, byte[] bytes, boolean append) throws IOException {
+            try (FileOutputStream stream = new FileOutputStream(file, append)) {
+                stream.write(bytes);
+                stream.getFD().sync();
+            }
+        }
+
+        // makes rename or creation of file durable, directories can't be synced on some platforms
+        private static void syncDir(File file) {
+            File dir = file.getAbsoluteFile().getParentFile();
+            try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) { channel.force(true); }
+            catch (IOException e) { logger.debug("Can't sync " + dir + ": " + e); }
         }
     }
 
+    // layout: <path> - metadata {frameworkId, nodeIds}, <path>/nodes/<id> - node;
+    // every write is a multi() setting metadata with version check, so concurrent writers of any znode conflict
     private static class ZkStorage extends Storage {
+        private static final Logger logger = Logger.getLogger(ZkStorage.class);
+        private static final int LOAD_THREADS = 8;
+        // node data per multi(), below default jute.maxbuffer (1MB)
+        private static final int MULTI_BYTES = 512 * 1024;
         private String connect, path;
 
+        private ZkClient client;
+        // version of metadata znode seen by last load/save, -1 - not existing
+        private int version = -1;
+        // state of znodes is known: loaded or saved
+        private boolean known;
+        // ids of existing node znodes
+        private Set<String> stored = new HashSet<>();
+        private boolean nodesDir;
+        // nodes should be fully rewritten: legacy layout or other codec
+        private boolean rewrite;
+        // state was modified by someone else: saves fail until it is reloaded
+        private boolean conflict;
+
         private ZkStorage(String zk) {
             // master:2181/hdfs-mesos,  master:2181,master2:2181/hdfs-mesos
             int slashIdx = zk.indexOf("/");
@@ -75,40 +268,234 @@ public abstract class Storage {
             path = zk.substring(slashIdx);
         }
 
-        private ZkClient client() { return new ZkClient(connect, 30000, 30000, new BytesPushThroughSerializer()); }
+        // single session is kept, ZkClient re-establishes it on expiration & retries operations until connected
+        private synchronized ZkClient client() {
+            if (client != null) return client;
+
+            client = new ZkClient(connect, 30000, 30000, new BytesPushThroughSerializer());
+            client.subscribeStateChanges(new IZkStateListener() {
+                public void handleStateChanged(Watcher.Event.KeeperState state) { logger.info("ZK " + connect + " state: " + state); }
+                public void handleNewSession() { logger.info("ZK " + connect + " session re-established"); }
+                public void handleSessionEstablishmentError(Throwable error) { logger.error("ZK " + connect + " session establishment failed", error); }
+            });
+
+            return client;
+        }
 
         @Override
-        public void save() {
-            ZkClient client = client();
-            try {
-                client.createPersistent(path, true);
-                client.writeData(path, Nodes.toJson().toString().getBytes(Charset.forName("utf-8")));
-            } finally { client.close(); }
+        public synchronized Storage codec(Codec codec) {
+            // nodes should be rewritten with new codec
+            if (codec != this.codec) rewrite = true;
+            return super.codec(codec);
         }
 
         @Override
-        public void load() {
+        public synchronized void save() {
+            long start = System.currentTimeMillis();
+            checkConflict();
+            readZnodes(client());
+
+            List<Node> nodes = Nodes.snapshot();
+            List<String> removed = new ArrayList<>(stored);
+            for (Node node : nodes) removed.remove(node.id);
+
+            write(nodes, removed);
+
+            long ms = System.currentTimeMillis() - start;
+            saves.record(ms);
+            logger.debug("Saved " + nodes.size() + " nodes to " + connect + path + " in " + ms + "ms");
+        }
+
+        @Override
+        public synchronized void save(Collection<Node> changed, Collection<String> removed) {
+            if (!known || rewrite) { save(); return; }
+            long start = System.currentTimeMillis();
+
+            write(changed, removed);
+
+            long ms = System.currentTimeMillis() - start;
+            saves.record(ms);
+            logger.debug("Saved " + changed.size() + " nodes, removed " + removed.size() + " nodes in " + connect + path + " in " + ms + "ms");
+        }
+
+        private void checkConflict() {
+            if (conflict) throw new IllegalStateException("state in " + connect + path + " was concurrently modified, reload is required");
+        }
+
+        // current versions of znodes, first save without load starts check from them
+        private void readZnodes(ZkClient client) {
+            if (!known) {
+                Stat stat = new Stat();
+                try {
+                    client.readData(path, stat);
+                    version = stat.getVersion();
+                } catch (ZkNoNodeException e) {
+                    version = -1;
+                }
+                known = true;
+            }
+
+            stored.clear();
+            nodesDir = client.exists(path + "/nodes");
+            if (nodesDir)
+                for (String child : client.getChildren(path + "/nodes")) stored.add(decode(child));
+        }
+
+        private void write(Collection<Node> changed, Collection<String> removed) {
+            checkConflict();
             ZkClient client = client();
+            byte[] meta = codec.encode(meta());
+
+            List<Op> ops = new ArrayList<>();
+            int size = 0;
+            for (Node node : changed) {
+                byte[] bytes = codec.encode(node);
+                if (!ops.isEmpty() && size + bytes.length > MULTI_BYTES) {
+                    commit(client, meta, ops);
+                    ops = new ArrayList<>();
+                    size = 0;
+                }
+
+                String nodePath = nodePath(node.id);
+                ops.add(stored.contains(node.id) ? Op.setData(nodePath, bytes, -1) : Op.create(nodePath, bytes, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+                size += bytes.length;
+            }
+
+            for (String id : removed)
+                if (stored.contains(id)) ops.add(Op.delete(nodePath(id), -1));
+
+            commit(client, meta, ops);
+            rewrite = false;
+        }
+
+        // conditional write: fails if state was changed by someone else (e.g. another scheduler instance),
+        // metadata version is bumped even if metadata is unchanged
+        private void commit(ZkClient client, byte[] meta, List<Op> nodeOps) {
+            List<Op> ops = new ArrayList<>();
+
+            if (version == -1) {
+                String parent = path.substring(0, path.lastIndexOf("/"));
+                if (!parent.isEmpty()) client.createPersistent(parent, true);
+                ops.add(Op.create(path, meta, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+            } else
+                ops.add(Op.setData(path, meta, version));
+
+            if (!nodesDir) ops.add(Op.create(path + "/nodes", null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+            ops.addAll(nodeOps);
+
+            List<OpResult> results;
+            try { results = client.multi(ops); }
+            catch (ZkBadVersionException | ZkNodeExistsException | ZkNoNodeException e) {
+                conflict = true;
+                throw new IllegalStateException("state in " + connect + path + " was concurrently modified", e);
+            }
+
+            version = version == -1 ? 0 : ((OpResult.SetDataResult) results.get(0)).getStat().getVersion();
+            nodesDir = true;
+
+            for (Op op : nodeOps) {
+                String id = decode(op.getPath().substring(op.getPath().lastIndexOf("/") + 1));
+                if (op.getType() == ZooDefs.OpCode.delete) stored.remove(id);
+                else stored.add(id);
+            }
+        }
+
+        private static Codec.State meta() {
+            Codec.State state = new Codec.State(Nodes.frameworkId, Collections.<Node>emptyList());
+
+            // keeps node order
+            state.nodeIds = new ArrayList<>();
+            for (Node node : Nodes.snapshot()) state.nodeIds.add(node.id);
+
+            return state;
+        }
+
+        @Override
+        public synchronized void load() {
+            long start = System.currentTimeMillis();
+            final ZkClient client = client();
+
+            Stat stat = new Stat();
+            byte[] bytes;
+            try { bytes = client.readData(path, stat); }
+            catch (ZkNoNodeException e) { bytes = null; stat = null; }
+
+            version = stat != null ? stat.getVersion() : -1;
+            known = true;
+            conflict = false;
+            rewrite = false;
+            readZnodes(client);
+            if (bytes == null) return;
+
+            Codec.State meta = Codec.of(bytes).decodeState(bytes);
+            // legacy single-znode layout has nodes inline, it is converted on next save
+            if (meta.nodeIds == null) {
+                Nodes.setNodes(meta.frameworkId, meta.nodes);
+                rewrite = true;
+                return;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(LOAD_THREADS, meta.nodeIds.size())));
+            List<Node> nodes = new ArrayList<>();
+            boolean sameCodec = Codec.of(bytes) == codec;
             try {
-                byte[] bytes = client.readData(path, true);
-                if (bytes == null) return;
+                List<Future<byte[]>> futures = new ArrayList<>();
+                for (final String id : meta.nodeIds)
+                    futures.add(executor.submit(new Callable<byte[]>() {
+                        public byte[] call() { return client.readData(nodePath(id), true); }
+                    }));
 
-                JSONObject json = (JSONObject) new JSONParser().parse(new String(bytes, Charset.forName("utf-8")));
-                Nodes.fromJson(json);
-            } catch (ParseException e) {
+                for (Future<byte[]> future : futures) {
+                    byte[] nodeBytes = future.get();
+                    if (nodeBytes == null) continue;
+
+                    Codec nodeCodec = Codec.of(nodeBytes);
+                    sameCodec &= nodeCodec == codec;
+                    nodes.add(nodeCodec.decodeNode(nodeBytes));
+                }
+            } catch (InterruptedException | ExecutionException e) {
                 throw new IOError(e);
             } finally {
-                client.close();
+                executor.shutdownNow();
             }
+
+            Nodes.setNodes(meta.frameworkId, nodes);
+            // state written by another codec is fully rewritten on next save
+            if (!sameCodec) rewrite = true;
+
+            long ms = System.currentTimeMillis() - start;
+            loads.record(ms);
+            logger.debug("Loaded " + nodes.size() + " nodes from " + connect + path + " in " + ms + "ms");
         }
 
         @Override
-        public void clear() {
-            ZkClient client = client();
-            try { client.delete(path); }
-            finally { client.close(); }
+        public synchronized void clear() {
+            client().deleteRecursive(path);
+            version = -1;
+            known = false;
+            stored.clear();
+            nodesDir = false;
+            conflict = false;
+            rewrite = false;
         }
-    }
-}
 
+        private String nodePath(String id) { return path + "/nodes/" + encode(id); }
+
+        @Override
+        public synchronized void close() {
+            if (client == null) return;
+            client.close();
+            client = null;
+        }
+
+        private static String encode(String id) {
+            try { return URLEncoder.encode(id, "utf-8"); }
+            catch (UnsupportedEncodingException e) { throw new IllegalStateException(e); }
+        }
 
+        private static String decode(String name) {
+            try { return URLDecoder.decode(name, "utf-8"); }
+            catch (UnsupportedEncodingException e) { throw new IllegalStateException(e); }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package net.elodina.mesos.hdfs;
 
+import net.elodina.mesos.api.Offer;
 import net.elodina.mesos.util.Strings;
 import org.junit.After;
 import org.junit.Before;
@@ -104,13 +105,14 @@ public class CliTest extends HdfsMesosTestCase {
         exec("node start nn --timeout=0");
         assertOutContains("node scheduled to start:");
         assertOutContains("id: nn");
-        assertEquals(Node.State.STARTING, nn.state);
+        assertEquals(Node.State.STARTING, nn.getState());
 
         // stop node
+        nn.initRuntime(new Offer("resources:[ports:0..10]"));
         exec("node stop nn --timeout=0");
         assertOutContains("node scheduled to stop:");
         assertOutContains("id: nn");
-        assertEquals(Node.State.STOPPING, nn.state);
+        assertEquals(Node.State.STOPPING, nn.getState());
     }
 
     private void exec(String cmd) {
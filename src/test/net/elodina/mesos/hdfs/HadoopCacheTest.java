@@ -0,0 +1,70 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.IO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class HadoopCacheTest {
+    private File dir;
+    private File archive;
+
+    @Before
+    public void before() throws IOException, InterruptedException {
+        dir = Files.createTempDirectory(HadoopCacheTest.class.getSimpleName()).toFile();
+
+        File hadoopDir = new File(dir, "dist/hadoop-1.2.1/bin");
+        assertTrue(hadoopDir.mkdirs());
+        IO.writeFile(new File(hadoopDir, "hadoop"), "hadoop");
+
+        archive = new File(dir, "hadoop-1.2.1.tar.gz");
+        Process process = new ProcessBuilder("tar", "-czf", archive.getAbsolutePath(), "hadoop-1.2.1")
+            .directory(new File(dir, "dist"))
+            .start();
+        assertEquals(0, process.waitFor());
+    }
+
+    @After
+    public void after() throws IOException {
+        IO.delete(dir);
+    }
+
+    @Test
+    public void resolve() throws IOException, InterruptedException {
+        HadoopCache cache = new HadoopCache(new File(dir, "cache"));
+        String hash = Hashes.sha256(archive);
+        String url = "" + archive.toURI().toURL();
+
+        // stale entry of crashed extraction
+        File entry = new File(dir, "cache/" + hash);
+        assertTrue(new File(entry, "partial").mkdirs());
+
+        // miss: extracted
+        File hadoopDir = cache.resolve(hash, url);
+        assertEquals(new File(dir, "cache/" + hash + "/hadoop-1.2.1"), hadoopDir);
+        assertEquals("hadoop", IO.readFile(new File(hadoopDir, "bin/hadoop")));
+        assertFalse(new File(dir, "cache/" + hash + ".tmp").exists());
+        assertFalse(new File(entry, "partial").exists());
+
+        // hit: archive is not downloaded
+        assertTrue(archive.delete());
+        assertEquals(hadoopDir, cache.resolve(hash, url));
+    }
+
+    @Test
+    public void resolve_checksumMismatch() throws IOException, InterruptedException {
+        HadoopCache cache = new HadoopCache(new File(dir, "cache"));
+        String hash = "0000";
+
+        try { cache.resolve(hash, "" + archive.toURI().toURL()); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("Checksum mismatch")); }
+
+        assertFalse(new File(dir, "cache/" + hash).exists());
+    }
+}
@@ -0,0 +1,115 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.IO;
+import net.elodina.mesos.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HadoopJvmTest {
+    private File dir;
+
+    @Before
+    public void before() throws IOException {
+        dir = Files.createTempDirectory(HadoopJvmTest.class.getSimpleName()).toFile();
+        Executor.javaHome = new File("/opt/jdk");
+    }
+
+    @After
+    public void after() throws IOException {
+        Executor.hadoopDir = null;
+        Executor.hadoopVersion = null;
+        Executor.confDir = null;
+        Executor.javaHome = null;
+        IO.delete(dir);
+    }
+
+    @Test
+    public void command_2x() throws IOException {
+        File hadoopDir = hadoop("hadoop-2.7.2",
+            "etc/hadoop/core-site.xml", "share/hadoop/common/webapps/static/x.css",
+            "share/hadoop/common/hadoop-common-2.7.2.jar", "share/hadoop/common/lib/guava.jar", "share/hadoop/common/lib/README.txt",
+            "share/hadoop/hdfs/hadoop-hdfs-2.7.2.jar", "share/hadoop/hdfs/lib/netty.jar", "share/hadoop/yarn/hadoop-yarn.jar"
+        );
+
+        List<String> cmd = HadoopJvm.command(Node.Type.NAMENODE, " -Xmx512m  -Dx=y ", "-format", "-force");
+        assertEquals("/opt/jdk/bin/java", cmd.get(0));
+        assertEquals(Arrays.asList(HadoopJvm.NAMENODE, "-format", "-force"), cmd.subList(cmd.size() - 3, cmd.size()));
+
+        // opts follow defaults, so override them
+        assertTrue(cmd.indexOf("-Xmx512m") > cmd.indexOf("-Xmx1000m"));
+        assertTrue(cmd.contains("-Dx=y"));
+        assertTrue(cmd.contains("-Dhadoop.home.dir=" + hadoopDir));
+
+        String classpath = cmd.get(cmd.indexOf("-cp") + 1);
+        assertEquals(classpath(hadoopDir,
+            "etc/hadoop", "share/hadoop/common", "share/hadoop/common/lib/guava.jar", "share/hadoop/common/hadoop-common-2.7.2.jar",
+            "share/hadoop/hdfs/lib/netty.jar", "share/hadoop/hdfs/hadoop-hdfs-2.7.2.jar"
+        ), classpath);
+
+        // sandbox conf
+        Executor.confDir = new File(dir, "conf");
+        cmd = HadoopJvm.command(Node.Type.DATANODE, null);
+        assertEquals(HadoopJvm.DATANODE, cmd.get(cmd.size() - 1));
+
+        classpath = cmd.get(cmd.indexOf("-cp") + 1);
+        assertTrue(classpath, classpath.startsWith(Executor.confDir.getAbsolutePath() + File.pathSeparator));
+        assertTrue(cmd.contains("-Dhadoop.log.dir=" + new File("logs").getAbsolutePath()));
+    }
+
+    @Test
+    public void command_1x() throws IOException {
+        File hadoopDir = hadoop("hadoop-1.2.1",
+            "conf/core-site.xml", "webapps/hdfs/index.html", "hadoop-core-1.2.1.jar", "hadoop-tools-1.2.1.jar",
+            "lib/commons-logging.jar", "lib/jsp-2.1/jsp.jar"
+        );
+
+        List<String> cmd = HadoopJvm.command(Node.Type.DATANODE, null);
+        assertEquals(HadoopJvm.DATANODE, cmd.get(cmd.size() - 1));
+        assertFalse(cmd.contains("-Dhadoop.security.logger=INFO,NullAppender"));
+
+        String classpath = cmd.get(cmd.indexOf("-cp") + 1);
+        assertEquals(classpath(hadoopDir,
+            "conf", "", "hadoop-core-1.2.1.jar", "lib/commons-logging.jar", "lib/jsp-2.1/jsp.jar"
+        ), classpath);
+    }
+
+    @Test
+    public void pid() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder("true").start();
+        process.waitFor();
+        assertTrue(HadoopJvm.pid(process) > 0);
+    }
+
+    private File hadoop(String name, String... paths) throws IOException {
+        File hadoopDir = new File(dir, name);
+        for (String path : paths) {
+            File file = new File(hadoopDir, path);
+            assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+            IO.writeFile(file, path);
+        }
+
+        Executor.hadoopDir = hadoopDir;
+        Executor.hadoopVersion = new Version(name.substring(name.lastIndexOf("-") + 1));
+        return hadoopDir;
+    }
+
+    private static String classpath(File hadoopDir, String... paths) {
+        String classpath = "";
+
+        for (String path : paths) {
+            if (!classpath.isEmpty()) classpath += File.pathSeparator;
+            classpath += path.isEmpty() ? hadoopDir.getPath() : new File(hadoopDir, path).getPath();
+        }
+
+        return classpath;
+    }
+}
@@ -2,9 +2,9 @@ package net.elodina.mesos.hdfs;
 
 import net.elodina.mesos.api.Master;
 import net.elodina.mesos.api.Task;
-import net.elodina.mesos.api.driver.SchedulerDriver;
 import net.elodina.mesos.test.MesosTestCase;
 import net.elodina.mesos.util.Net;
+import net.elodina.mesos.util.Period;
 import org.apache.log4j.BasicConfigurator;
 import org.junit.After;
 import org.junit.Before;
@@ -48,12 +48,16 @@ public class HdfsMesosTestCase extends MesosTestCase {
         Scheduler.Config config = Scheduler.$.config;
         config.api = null;
         config.jar = null;
+        config.executorJar = null;
+        config.artifacts.clear();
 
+        Nodes.reset();
         Nodes.storage.clear();
     }
 
-    public static class TestSchedulerDriver implements SchedulerDriver {
+    public static class TestSchedulerDriver implements Driver {
         public List<String> declinedOffers = new ArrayList<>();
+        public List<Period> declineRefuses = new ArrayList<>();
         public List<String> acceptedOffers = new ArrayList<>();
 
         public List<Task> launchedTasks = new ArrayList<>();
@@ -61,17 +65,40 @@ public class HdfsMesosTestCase extends MesosTestCase {
         public List<String> reconciledTasks = new ArrayList<>();
 
         public boolean stopped;
+        public boolean suppressed;
+        public int revives;
         public List<Message> sentFrameworkMessages = new ArrayList<>();
 
         @Override
         public void declineOffer(String id) { declinedOffers.add(id); }
 
+        @Override
+        public void declineOffer(String id, Period refuse) {
+            declinedOffers.add(id);
+            declineRefuses.add(refuse);
+        }
+
+        @Override
+        public void suppressOffers() { suppressed = true; }
+
+        @Override
+        public void reviveOffers() {
+            suppressed = false;
+            revives++;
+        }
+
         @Override
         public void launchTask(String offerId, Task task) {
             acceptedOffers.add(offerId);
             launchedTasks.add(task);
         }
 
+        @Override
+        public void launchTasks(String offerId, List<Task> tasks) {
+            acceptedOffers.add(offerId);
+            launchedTasks.addAll(tasks);
+        }
+
         @Override
         public void reconcileTasks(List<String> ids) {
             if (ids.isEmpty()) reconciledTasks.add("");
@@ -1,5 +1,6 @@
 package net.elodina.mesos.hdfs;
 
+import net.elodina.mesos.api.Offer;
 import net.elodina.mesos.util.IO;
 import net.elodina.mesos.util.Request;
 import org.json.simple.JSONArray;
@@ -11,14 +12,18 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.List;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.TestCase.assertTrue;
-import static org.junit.Assert.fail;
+import static org.junit.Assert.*;
 
 public class HttpServerTest extends HdfsMesosTestCase {
     private HttpServer server;
@@ -62,12 +67,135 @@ public class HttpServerTest extends HdfsMesosTestCase {
         assertEquals("hadoop", new String(data));
     }
 
+    @Test
+    public void download_artifact() throws IOException {
+        Scheduler.Config config = Scheduler.$.config;
+        config.jar = new File(dir, "hdfs-mesos-0.1.jar");
+        IO.writeFile(config.jar, "jar");
+        config.publish(config.jar);
+
+        String hash = "0163f1eea7894350060624d315234d40c508ab251ba121714e234503045faadd";
+        assertEquals(config.api + "/artifact/" + hash + "/hdfs-mesos-0.1.jar", config.artifactUrl(config.jar, "/jar/"));
+
+        Request.Response response = new Request(config.artifactUrl(config.jar, "/jar/")).send();
+        assertEquals(200, response.code());
+        assertEquals("jar", new String(response.body()));
+        assertTrue(response.header("Cache-Control"), response.header("Cache-Control").contains("immutable"));
+
+        // unknown hash or name
+        assertEquals(404, new Request(Cli.api + "/artifact/" + hash + "/other.jar").send().code());
+        assertEquals(404, new Request(Cli.api + "/artifact/0000/hdfs-mesos-0.1.jar").send().code());
+
+        // file changed after publishing: old url is gone, file is republished by new hash
+        IO.writeFile(config.jar, "changed");
+        assertTrue(config.jar.setLastModified(System.currentTimeMillis() + 10000));
+        assertEquals(404, new Request(Cli.api + "/artifact/" + hash + "/hdfs-mesos-0.1.jar").send().code());
+
+        String url = config.artifactUrl(config.jar, "/jar/");
+        assertFalse(url, url.contains(hash));
+        assertTrue(config.isPublished(config.jar));
+
+        response = new Request(url).send();
+        assertEquals(200, response.code());
+        assertEquals("changed", new String(response.body()));
+
+        // file can't be hashed: served by name, without caching
+        assertTrue(config.jar.delete());
+        assertTrue(config.jar.mkdir());
+        assertEquals(config.api + "/jar/hdfs-mesos-0.1.jar", config.artifactUrl(config.jar, "/jar/"));
+        assertFalse(config.isPublished(config.jar));
+    }
+
+    @Test
+    public void download_range_conditional() throws IOException {
+        Scheduler.$.config.hadoop = new File(dir, "hadoop-1.2.1.tar.gz");
+        IO.writeFile(Scheduler.$.config.hadoop, "0123456789");
+        String url = Cli.api + "/hadoop/hadoop.tar.gz";
+
+        Request.Response response = new Request(url).send();
+        assertEquals(200, response.code());
+        assertEquals("application/x-gtar", response.contentType());
+        assertEquals("bytes", response.header("Accept-Ranges"));
+        String etag = response.header("ETag");
+        assertNotNull(etag);
+
+        // range
+        response = new Request(url).header("Range", "bytes=2-4").send();
+        assertEquals(206, response.code());
+        assertEquals("bytes 2-4/10", response.header("Content-Range"));
+        assertEquals("234", new String(response.body()));
+
+        // suffix range
+        response = new Request(url).header("Range", "bytes=-3").send();
+        assertEquals("789", new String(response.body()));
+
+        // unsatisfiable range
+        response = new Request(url).header("Range", "bytes=20-30").send();
+        assertEquals(416, response.code());
+        assertEquals("bytes */10", response.header("Content-Range"));
+
+        // If-Range: matching etag
+        response = new Request(url).header("Range", "bytes=2-4").header("If-Range", etag).send();
+        assertEquals(206, response.code());
+
+        // If-Range: other etag, full content
+        response = new Request(url).header("Range", "bytes=2-4").header("If-Range", "\"other\"").send();
+        assertEquals(200, response.code());
+        assertEquals("0123456789", new String(response.body()));
+
+        // If-None-Match
+        response = new Request(url).header("If-None-Match", etag).send();
+        assertEquals(304, response.code());
+
+        // If-Modified-Since
+        response = new Request(url).header("If-Modified-Since", response.header("Last-Modified")).send();
+        assertEquals(304, response.code());
+
+        // changed file
+        IO.writeFile(Scheduler.$.config.hadoop, "changed");
+        assertTrue(Scheduler.$.config.hadoop.setLastModified(System.currentTimeMillis() + 10000));
+
+        response = new Request(url).header("If-None-Match", etag).send();
+        assertEquals(200, response.code());
+        assertEquals("changed", new String(response.body()));
+    }
+
+    @Test
+    public void FileContent_replaced() throws IOException {
+        File file = new File(dir, "file");
+        IO.writeFile(file, "0123456789");
+
+        try (HttpServer.FileContent content = new HttpServer.FileContent(file)) {
+            // replaced by rename after open
+            File tmp = new File(dir, "file.tmp");
+            IO.writeFile(tmp, "new");
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            content.send(out, 2, 3);
+            assertEquals("234", out.toString());
+        }
+    }
+
     @Test
     public void handle_health() throws IOException {
         byte[] response = download("/health");
         assertEquals("ok\n", new String(response));
     }
 
+    @Test
+    public void reconciliation() throws IOException {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.initRuntime(new Offer("resources:[ports:0..10]"));
+        Scheduler.$.reconciler().start(schedulerDriver, new Date());
+
+        JSONObject json = request("/reconciliation");
+        assertEquals(true, json.get("active"));
+        assertEquals(1L, json.get("tries"));
+        assertEquals(1L, json.get("total"));
+        assertEquals(1L, json.get("remaining"));
+    }
+
     @Test
     public void node_list() throws IOException {
         // no nodes
@@ -93,6 +221,92 @@ public class HttpServerTest extends HdfsMesosTestCase {
         catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("invalid node")); }
     }
 
+    @Test
+    public void node_list_filter() throws IOException {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.initRuntime(new Offer("hostname:master, resources:[ports:0..10], attributes:[rack=r0]"));
+        nn.setState(Node.State.RUNNING);
+
+        Node dn0 = Nodes.addNode(new Node("dn0", Node.Type.DATANODE));
+        dn0.initRuntime(new Offer("hostname:slave0, resources:[ports:0..10], attributes:[rack=r1]"));
+        dn0.setState(Node.State.STARTING);
+
+        Nodes.addNode(new Node("dn1", Node.Type.DATANODE));
+
+        assertEquals(Arrays.asList("nn"), listIds("/node/list?state=running"));
+        assertEquals(Arrays.asList("dn0", "dn1"), listIds("/node/list?state=starting,idle"));
+        assertEquals(Arrays.asList("dn0", "dn1"), listIds("/node/list?type=datanode"));
+        assertEquals(Arrays.asList("dn0"), listIds("/node/list?host=slave0"));
+        assertEquals(Arrays.asList("nn"), listIds("/node/list?attributes=rack%3Dr0"));
+
+        // projection
+        JSONArray json = request("/node/list?node=nn&fields=state");
+        assertEquals(1, json.size());
+        assertEquals(new HashSet<>(Arrays.asList("id", "state")), ((JSONObject) json.get(0)).keySet());
+
+        // invalid filters
+        for (String param : Arrays.asList("state", "type", "limit"))
+            try { request("/node/list?" + param + "=invalid"); fail(); }
+            catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("invalid " + param)); }
+    }
+
+    @Test
+    public void node_list_pagination() throws IOException {
+        for (String id : Nodes.expandExpr("dn0..4")) Nodes.addNode(new Node(id, Node.Type.DATANODE));
+
+        Request.Response response = new Request(Cli.api + "/api/node/list?limit=2").send();
+        assertEquals("dn1", response.header("X-Next-Cursor"));
+
+        response = new Request(Cli.api + "/api/node/list?limit=2&cursor=dn1").send();
+        assertEquals("dn3", response.header("X-Next-Cursor"));
+
+        // last page
+        response = new Request(Cli.api + "/api/node/list?limit=2&cursor=dn3").send();
+        assertEquals(null, response.header("X-Next-Cursor"));
+        assertEquals(Arrays.asList("dn4"), listIds("/node/list?limit=2&cursor=dn3"));
+
+        // cursor with filter
+        Nodes.getNode("dn2").setState(Node.State.STARTING);
+        assertEquals(Arrays.asList("dn3", "dn4"), listIds("/node/list?state=idle&cursor=dn1"));
+
+        try { request("/node/list?cursor=unknown"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("invalid cursor")); }
+    }
+
+    @Test
+    public void node_list_etag() throws IOException {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+
+        Request.Response response = new Request(Cli.api + "/api/node/list").send();
+        String etag = response.header("ETag");
+        assertNotNull(etag);
+
+        // not modified
+        response = new Request(Cli.api + "/api/node/list").header("If-None-Match", etag).send();
+        assertEquals(304, response.code());
+
+        // saved unchanged
+        Nodes.markDirty(nn);
+        Nodes.save();
+        response = new Request(Cli.api + "/api/node/list").header("If-None-Match", etag).send();
+        assertEquals(304, response.code());
+
+        // modified
+        nn.cpus = 2;
+        Nodes.markDirty(nn);
+        Nodes.save();
+
+        response = new Request(Cli.api + "/api/node/list").header("If-None-Match", etag).send();
+        assertEquals(200, response.code());
+        assertFalse(etag.equals(response.header("ETag")));
+    }
+
+    private List<String> listIds(String uri) throws IOException {
+        List<String> ids = new ArrayList<>();
+        for (Object json : (JSONArray) request(uri)) ids.add((String) ((JSONObject) json).get("id"));
+        return ids;
+    }
+
     @Test
     public void node_add_update() throws IOException {
         // add namenode
@@ -139,7 +353,7 @@ public class HttpServerTest extends HdfsMesosTestCase {
         catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("node not found")); }
 
         // node not idle
-        dn.state = Node.State.STARTING;
+        dn.setState(Node.State.STARTING);
         try { request("/node/update?node=dn"); fail(); }
         catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("node not idle")); }
     }
@@ -191,6 +405,10 @@ public class HttpServerTest extends HdfsMesosTestCase {
         // failoverMaxTries
         try { request("/node/update?node=nn&failoverMaxTries=invalid"); fail(); }
         catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("invalid failoverMaxTries")); }
+
+        // ports
+        try { request("/node/update?node=nn&ports=http%3D8020,ipc%3D8020"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("invalid ports")); }
     }
 
     @Test
@@ -200,12 +418,104 @@ public class HttpServerTest extends HdfsMesosTestCase {
         // schedule start
         JSONObject json = request("/node/start?node=nn&timeout=0");
         assertEquals("scheduled", "" + json.get("status"));
-        assertEquals(Node.State.STARTING, nn.state);
+        assertEquals(Node.State.STARTING, nn.getState());
 
-        // schedule stop
+        // schedule stop: task is killed at once
+        nn.initRuntime(new Offer("resources:[ports:0..10]"));
         json = request("/node/stop?node=nn&timeout=0");
         assertEquals("scheduled", "" + json.get("status"));
-        assertEquals(Node.State.STOPPING, nn.state);
+        assertEquals(Node.State.STOPPING, nn.getState());
+        assertEquals(Arrays.asList(nn.runtime.taskId), schedulerDriver.killedTasks);
+
+        // repeated stop resends kill
+        request("/node/stop?node=nn&timeout=0");
+        assertEquals(2, schedulerDriver.killedTasks.size());
+    }
+
+    @Test(timeout = 10000)
+    public void node_start_stop_wait() throws IOException {
+        final Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+
+        // completed by state change
+        Thread thread = new Thread() {
+            public void run() {
+                try { while (nn.getState() != Node.State.STARTING) Thread.sleep(10); }
+                catch (InterruptedException e) { return; }
+
+                nn.setState(Node.State.RUNNING);
+            }
+        };
+        thread.start();
+
+        JSONObject json = request("/node/start?node=nn&timeout=1m");
+        assertEquals("started", "" + json.get("status"));
+        assertEquals(Node.State.RUNNING, nn.getState());
+
+        // timeout
+        nn.initRuntime(new Offer("resources:[ports:0..10]"));
+        json = request("/node/stop?node=nn&timeout=100ms");
+        assertEquals("timeout", "" + json.get("status"));
+        assertEquals(Node.State.STOPPING, nn.getState());
+    }
+
+    @Test(timeout = 10000)
+    public void node_events() throws IOException {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        Nodes.addNode(new Node("dn", Node.Type.DATANODE));
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Cli.openStream("/node/events", Collections.singletonMap("node", "nn"))))) {
+            // current state
+            JSONObject json = readEvent(reader, "state");
+            assertEquals("nn", json.get("node"));
+            assertEquals("idle", json.get("state"));
+
+            // state change
+            nn.setState(Node.State.STARTING);
+            json = readEvent(reader, "state");
+            assertEquals("starting", json.get("state"));
+            assertEquals("idle", json.get("old"));
+
+            // reservation
+            nn.initRuntime(new Offer("resources:[cpus:2;mem:2048;ports:0..10]"));
+            json = readEvent(reader, "reservation");
+            assertEquals("nn", json.get("node"));
+            assertTrue(json.containsKey("reservation"));
+        }
+
+        // invalid node
+        try { Cli.openStream("/node/events", Collections.singletonMap("node", "0..a")); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("400")); }
+    }
+
+    @Test(timeout = 10000)
+    public void node_events_overflow() throws IOException {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+
+        HttpServer.maxQueuedEvents = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Cli.openStream("/node/events", Collections.<String, String>emptyMap())))) {
+            assertEquals("event: state", reader.readLine());
+
+            // stream not keeping up is closed
+            for (int i = 0; i < 1000; i++)
+                nn.setState(i % 2 == 0 ? Node.State.STARTING : Node.State.IDLE);
+
+            // completed or aborted while being written
+            try { while (reader.readLine() != null); }
+            catch (IOException ignore) {}
+        } finally {
+            HttpServer.maxQueuedEvents = 1000;
+        }
+    }
+
+    private JSONObject readEvent(BufferedReader reader, String type) throws IOException {
+        assertEquals("event: " + type, reader.readLine());
+
+        String data = reader.readLine();
+        assertTrue(data, data.startsWith("data: "));
+        assertEquals("", reader.readLine());
+
+        try { return (JSONObject) new JSONParser().parse(data.substring("data: ".length())); }
+        catch (ParseException e) { throw new IOException(e); }
     }
 
     @Test
@@ -224,13 +534,13 @@ public class HttpServerTest extends HdfsMesosTestCase {
 
         // node not idle
         Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
-        nn.state = Node.State.RUNNING;
+        nn.setState(Node.State.RUNNING);
 
         try { request("/node/start?node=nn"); fail(); }
         catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("node not idle")); }
 
         // node idle
-        nn.state = Node.State.IDLE;
+        nn.setState(Node.State.IDLE);
         try { request("/node/stop?node=nn"); fail(); }
         catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("node idle")); }
 
@@ -278,7 +588,7 @@ public class HttpServerTest extends HdfsMesosTestCase {
 
         // node not idle
         Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
-        nn.state = Node.State.RUNNING;
+        nn.setState(Node.State.RUNNING);
         try { request("/node/remove?node=nn"); fail(); }
         catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("node not idle")); }
     }
@@ -2,11 +2,15 @@ package net.elodina.mesos.hdfs;
 
 import net.elodina.mesos.api.*;
 import net.elodina.mesos.util.Constraint;
+import net.elodina.mesos.util.IO;
 import net.elodina.mesos.util.Period;
 import net.elodina.mesos.util.Range;
 import net.elodina.mesos.util.Strings;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 
 import static net.elodina.mesos.hdfs.Node.Failover;
@@ -48,7 +52,7 @@ public class NodeTest extends HdfsMesosTestCase {
         // running namenode
         nn.externalFsUri = null;
         nn.initRuntime(offer);
-        nn.state = Node.State.RUNNING;
+        nn.setState(Node.State.RUNNING);
         assertNull(node.matches(offer));
     }
 
@@ -139,24 +143,30 @@ public class NodeTest extends HdfsMesosTestCase {
     }
 
     @Test
-    public void reservePort() {
-        Node node = new Node("0");
-        List<Range> ports = new ArrayList<>();
-        ports.add(new Range("0..100"));
+    public void reserve_ports() {
+        Node node = new Node("dn", Node.Type.DATANODE);
+        Offer offer = new Offer("resources:[cpus:1;mem:1024;ports:0..2,10..20]");
+        Nodes.addNode(new Node("nn")).externalFsUri = "hdfs://nn:8020";
 
-        assertEquals(10, node.reservePort(new Range("10..20"), ports));
-        assertEquals(Arrays.asList(new Range("0..9"), new Range("11..100")), ports);
+        // lowest free
+        assertEquals(ports("http=0,ipc=1,data=2"), node.reserve(offer).ports);
 
-        assertEquals(0, node.reservePort(new Range("0..0"), ports));
-        assertEquals(Arrays.asList(new Range("1..9"), new Range("11..100")), ports);
+        // last ports if offered
+        node.lastPorts = ports("http=15,ipc=16,data=100");
+        assertEquals(ports("http=15,ipc=16,data=0"), node.reserve(offer).ports);
 
-        assertEquals(100, node.reservePort(new Range("100..200"), ports));
-        assertEquals(Arrays.asList(new Range("1..9"), new Range("11..99")), ports);
+        // fixed ports
+        node.ports = ports("http=16");
+        assertEquals(ports("http=16,ipc=0,data=1"), node.reserve(offer).ports);
+        assertNull(node.matches(offer));
 
-        assertEquals(50, node.reservePort(new Range("50..60"), ports));
-        assertEquals(Arrays.asList(new Range("1..9"), new Range("11..49"), new Range("51..99")), ports);
+        node.ports = ports("data=30");
+        assertEquals("no data port 30", node.matches(offer));
+        assertFalse(node.reserve(offer).ports.containsKey("data"));
     }
 
+    private static Map<String, Integer> ports(String s) { return Node.parsePorts(s); }
+
     @Test
     public void initRuntime() {
         Node node = Nodes.addNode(new Node("0"));
@@ -246,13 +256,70 @@ public class NodeTest extends HdfsMesosTestCase {
         assertTrue(cmd, cmd.contains("java"));
         assertTrue(cmd, cmd.contains(node.executorJvmOpts));
         assertTrue(cmd, cmd.contains(Executor.class.getName()));
+
+        // not published: by name, not cached
+        assertFalse(command.uris().get(0).cache());
+    }
+
+    @Test
+    public void newExecutor_artifacts() throws IOException {
+        Scheduler.Config config = Scheduler.$.config;
+        File dir = Files.createTempDirectory(NodeTest.class.getSimpleName()).toFile();
+        try {
+            config.jar = new File(dir, "hdfs-mesos-0.1.jar");
+            config.hadoop = new File(dir, "hadoop-1.2.1.tar.gz");
+            IO.writeFile(config.jar, "jar");
+            IO.writeFile(config.hadoop, "hadoop");
+
+            config.publish(config.jar);
+            config.publish(config.hadoop);
+
+            Node node = Nodes.addNode(new Node("0"));
+            node.initRuntime(new Offer("resources:[ports:0..10]"));
+
+            List<Command.URI> uris = node.newExecutor().command().uris();
+            for (Command.URI uri : uris) {
+                assertTrue(uri.value(), uri.value().contains("/artifact/"));
+                assertTrue(uri.cache());
+            }
+            assertTrue(uris.get(0).value().endsWith("/hdfs-mesos-0.1.jar"));
+
+            // hadoop cache: hadoop is resolved by executor
+            config.hadoopCache = "/var/cache/hdfs-mesos";
+            Command command = node.newExecutor().command();
+            assertEquals(1, command.uris().size());
+
+            String cmd = command.value();
+            assertTrue(cmd, cmd.contains("--hadoop-cache=/var/cache/hdfs-mesos"));
+            assertTrue(cmd, cmd.contains("--hadoop-hash=" + config.artifactHash(config.hadoop)));
+            assertTrue(cmd, cmd.contains("--hadoop-url=" + config.artifactUrl(config.hadoop, "/hadoop/")));
+        } finally {
+            config.hadoopCache = null;
+            IO.delete(dir);
+        }
+    }
+
+    @Test
+    public void newExecutor_executorJar() {
+        Scheduler.Config config = Scheduler.$.config;
+        config.executorJar = new File("hdfs-mesos-executor-0.1.jar");
+
+        Node node = Nodes.addNode(new Node("0"));
+        node.initRuntime(new Offer("resources:[ports:0..10]"));
+
+        Command command = node.newExecutor().command();
+        assertEquals(config.api + "/executor-jar/hdfs-mesos-executor-0.1.jar", command.uris().get(0).value());
+
+        String cmd = command.value();
+        assertTrue(cmd, cmd.startsWith("java -cp hdfs-mesos-executor-0.1.jar "));
+        assertTrue(cmd, cmd.contains(Executor.class.getName()));
     }
 
     @Test
     public void toJson_fromJson() {
         Node node = Nodes.addNode(new Node("node"));
         node.type = Node.Type.NAMENODE;
-        node.state = Node.State.RUNNING;
+        node.setState(Node.State.RUNNING);
 
         node.cpus = 2;
         node.mem = 1024;
@@ -274,7 +341,7 @@ public class NodeTest extends HdfsMesosTestCase {
         Node read = new Node(node.toJson());
         assertEquals(node.id, read.id);
         assertEquals(node.type, read.type);
-        assertEquals(node.state, read.state);
+        assertEquals(node.getState(), read.getState());
 
         assertEquals(node.cpus, read.cpus, 0.001);
         assertEquals(node.mem, read.mem);
@@ -294,6 +361,53 @@ public class NodeTest extends HdfsMesosTestCase {
         assertNotNull(read.reservation);
     }
 
+    @Test
+    public void toBytes_fromBytes() {
+        Node node = Nodes.addNode(new Node("node"));
+        node.setState(Node.State.RUNNING);
+        node.cpus = 2;
+        node.mem = 1024;
+
+        node.constraints.put("hostname", new Constraint("like:master"));
+        node.hadoopJvmOpts = "hadoop-opts";
+        node.coreSiteOpts.put("a", "1");
+        node.hdfsSiteOpts.put("b", "2");
+
+        node.initRuntime(new Offer("resources:[ports:0..10]"));
+        node.runtime.attributes.put("rack", "r1");
+        node.runtime.killSent = true;
+        node.stickiness.registerStop(new Date(1000));
+        node.failover.maxTries = 3;
+        node.failover.registerFailure(new Date(2000));
+
+        Node read = new Node(node.toBytes());
+        assertEquals(node.id, read.id);
+        assertEquals(node.type, read.type);
+        assertEquals(node.getState(), read.getState());
+        assertEquals(node.cpus, read.cpus, 0.001);
+        assertEquals(node.mem, read.mem);
+
+        assertEquals(node.constraints, read.constraints);
+        assertNull(read.executorJvmOpts);
+        assertEquals(node.hadoopJvmOpts, read.hadoopJvmOpts);
+        assertEquals(node.coreSiteOpts, read.coreSiteOpts);
+        assertEquals(node.hdfsSiteOpts, read.hdfsSiteOpts);
+        assertNull(read.externalFsUri);
+
+        assertEquals(node.runtime.taskId, read.runtime.taskId);
+        assertEquals(node.runtime.attributes, read.runtime.attributes);
+        assertTrue(read.runtime.killSent);
+        assertEquals(node.reservation.ports, read.reservation.ports);
+
+        assertEquals(node.stickiness.stopTime, read.stickiness.stopTime);
+        assertEquals(node.failover.maxTries, read.failover.maxTries);
+        assertEquals(1, read.failover.failures);
+        assertEquals(node.failover.failureTime, read.failover.failureTime);
+
+        // same content as json
+        assertEquals("" + node.toJson(), "" + read.toJson());
+    }
+
     // Runtime
     @Test
     public void Runtime_toJson_fromJson() {
@@ -338,6 +452,20 @@ public class NodeTest extends HdfsMesosTestCase {
         assertEquals(Resource.parse("cpus:0.5;mem:500;ports:1000..1000"), new Node.Reservation(0.5, 500, Collections.singletonMap("ipc", 1000)).toResources());
     }
 
+    @Test
+    public void Reservation_subtractFrom() {
+        Offer offer = new Offer("id:o, slaveId:s, hostname:host, resources:[cpus:2;mem:1024;ports:0..10]");
+
+        Offer remaining = new Node.Reservation(0.5, 256, Collections.singletonMap("ipc", 5)).subtractFrom(offer);
+        assertEquals("o", remaining.id());
+        assertEquals("host", remaining.hostname());
+        assertEquals(Resource.parse("cpus:1.5;mem:768;ports:0..4,6..10"), remaining.resources());
+
+        // overcommit
+        remaining = new Node.Reservation(3, 2048, Collections.<String, Integer>emptyMap()).subtractFrom(offer);
+        assertEquals(Resource.parse("cpus:0;mem:0;ports:0..10"), remaining.resources());
+    }
+
     // Stickiness
     @Test
     public void Stickiness_allowsHostname() {
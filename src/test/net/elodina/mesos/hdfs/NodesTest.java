@@ -1,10 +1,12 @@
 package net.elodina.mesos.hdfs;
 
+import net.elodina.mesos.api.Offer;
+import net.elodina.mesos.util.Period;
 import org.json.simple.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.util.Arrays;
+import java.util.*;
 
 import static org.junit.Assert.*;
 
@@ -38,13 +40,60 @@ public class NodesTest {
         Node n1 = Nodes.addNode(new Node("n1", Node.Type.DATANODE));
         Node n2 = Nodes.addNode(new Node("n2", Node.Type.DATANODE));
 
-        n1.state = Node.State.RUNNING;
-        n2.state = Node.State.RUNNING;
+        n1.setState(Node.State.RUNNING);
+        n2.setState(Node.State.RUNNING);
 
         assertEquals(Arrays.asList(n0), Nodes.getNodes(Node.State.IDLE));
         assertEquals(Arrays.asList(n1, n2), Nodes.getNodes(Node.State.RUNNING));
     }
 
+    @Test
+    public void getNodes_by_state_transitions() {
+        Node n0 = Nodes.addNode(new Node("n0"));
+        Node n1 = Nodes.addNode(new Node("n1", Node.Type.DATANODE));
+
+        n0.setState(Node.State.STARTING);
+        assertEquals(Arrays.asList(n1), Nodes.getNodes(Node.State.IDLE));
+        assertEquals(Arrays.asList(n0), Nodes.getNodes(Node.State.STARTING));
+        assertEquals(1, Nodes.countNodes(Node.State.STARTING));
+
+        // removed node
+        Nodes.removeNode(n0);
+        assertEquals(0, Nodes.countNodes(Node.State.STARTING));
+
+        // not added node
+        n0.setState(Node.State.RUNNING);
+        assertTrue(Nodes.getNodes(Node.State.RUNNING).isEmpty());
+    }
+
+    @Test
+    public void getNodeByTaskId() {
+        Nodes.addNode(new Node("nn", Node.Type.NAMENODE)).externalFsUri = "fs-uri";
+        Node dn = Nodes.addNode(new Node("dn", Node.Type.DATANODE));
+        assertNull(Nodes.getNodeByTaskId("unknown"));
+
+        dn.initRuntime(new Offer("resources:[ports:0..10]"));
+        assertSame(dn, Nodes.getNodeByTaskId(dn.runtime.taskId));
+
+        // runtime replaced
+        String taskId = dn.runtime.taskId;
+        dn.initRuntime(new Offer("resources:[ports:0..10]"));
+        assertNull(Nodes.getNodeByTaskId(taskId));
+        assertSame(dn, Nodes.getNodeByTaskId(dn.runtime.taskId));
+
+        // runtime reset
+        taskId = dn.runtime.taskId;
+        dn.runtime = null;
+        assertNull(Nodes.getNodeByTaskId(taskId));
+        Nodes.runtimeChanged(dn);
+        assertNull(Nodes.getNodeByTaskId(taskId));
+
+        // loaded node
+        dn.initRuntime(new Offer("resources:[ports:0..10]"));
+        Nodes.fromJson(Nodes.toJson());
+        assertEquals(dn, Nodes.getNodeByTaskId(dn.runtime.taskId));
+    }
+
     @Test
     public void getNode() {
         assertNull(Nodes.getNode("n0"));
@@ -109,4 +158,108 @@ public class NodesTest {
         assertEquals("id", Nodes.frameworkId);
         assertEquals(Arrays.asList(n0, n1), Nodes.getNodes());
     }
+
+    @Test
+    public void events() {
+        final List<Nodes.Event> events = new ArrayList<>();
+        Nodes.Listener listener = new Nodes.Listener() {
+            public void onEvent(Nodes.Event event) { events.add(event); }
+        };
+
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        Nodes.addListener(listener);
+        try {
+            nn.setState(Node.State.STARTING);
+            nn.initRuntime(new Offer("resources:[cpus:2;mem:2048;ports:0..10]"));
+            nn.runtime = null;
+            Nodes.runtimeChanged(nn);
+        } finally {
+            Nodes.removeListener(listener);
+        }
+
+        assertEquals(3, events.size());
+
+        Nodes.Event state = events.get(0);
+        assertEquals(Nodes.Event.Type.STATE, state.type);
+        assertEquals(Node.State.IDLE, state.old);
+        assertEquals(Node.State.STARTING, state.state);
+
+        Nodes.Event reserved = events.get(1);
+        assertEquals(Nodes.Event.Type.RESERVATION, reserved.type);
+        assertNotNull(reserved.reservation);
+        assertNull(events.get(2).reservation);
+
+        // json round trip
+        Nodes.Event read = new Nodes.Event(reserved.toJson());
+        assertEquals(reserved.type, read.type);
+        assertEquals("nn", read.node);
+        assertEquals(reserved.time.getTime() / 1000, read.time.getTime() / 1000);
+        assertEquals(reserved.reservation.toJson(), read.reservation.toJson());
+    }
+
+    @Test
+    public void save_flush() {
+        final List<Collection<Node>> saved = new ArrayList<>();
+        final List<Collection<String>> removals = new ArrayList<>();
+        final boolean[] fail = {false};
+
+        Storage storage = Nodes.storage;
+        Nodes.storage = new Storage() {
+            public void save() { throw new UnsupportedOperationException(); }
+            public void save(Collection<Node> changed, Collection<String> removed) {
+                if (fail[0]) throw new IllegalStateException("failed");
+                saved.add(changed);
+                removals.add(removed);
+            }
+            public void load() {}
+            public void clear() {}
+        };
+
+        Period saveDelay = Nodes.saveDelay;
+        Nodes.saveDelay = new Period("1h");
+        try {
+            Node n0 = Nodes.addNode(new Node("n0"));
+            Node n1 = Nodes.addNode(new Node("n1", Node.Type.DATANODE));
+
+            // saves are coalesced into pending flush
+            Nodes.save();
+            Nodes.save();
+            assertTrue(saved.isEmpty());
+
+            Nodes.flush();
+            assertEquals(1, saved.size());
+            assertEquals(Arrays.asList(n0, n1), saved.get(0));
+
+            // nothing changed
+            Nodes.flush();
+            assertEquals(1, saved.size());
+
+            // only dirty nodes are saved, as copied at change
+            n1.cpus = 2;
+            Nodes.markDirty(n1);
+            n1.cpus = 3;
+            Nodes.removeNode(n0);
+
+            Nodes.flush();
+            assertEquals(2, saved.size());
+            assertEquals(Arrays.asList(n1), saved.get(1));
+            assertNotSame(n1, saved.get(1).iterator().next());
+            assertEquals(2, saved.get(1).iterator().next().cpus, 0.001);
+            assertEquals(Arrays.asList("n0"), removals.get(1));
+
+            // failed changes are retried
+            Nodes.markDirty(n1);
+            fail[0] = true;
+            try { Nodes.flush(); fail(); }
+            catch (IllegalStateException expected) {}
+
+            fail[0] = false;
+            Nodes.flush();
+            assertEquals(3, saved.size());
+            assertEquals(3, saved.get(2).iterator().next().cpus, 0.001);
+        } finally {
+            Nodes.saveDelay = saveDelay;
+            Nodes.storage = storage;
+        }
+    }
 }
@@ -0,0 +1,27 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.api.Offer;
+import net.elodina.mesos.util.Range;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class OfferViewTest {
+    @Test
+    public void init() {
+        OfferView view = new OfferView(new Offer("hostname:master, resources:[cpus:2; mem:1024; ports:5..6,0..1], attributes:[rack=r1]"));
+        assertEquals(2, view.cpus, 0.001);
+        assertEquals(1024, view.mem);
+        assertEquals(Arrays.asList(new Range(0, 1), new Range(5, 6)), view.ports);
+        assertEquals("master", view.attributes.get("hostname"));
+        assertEquals("r1", view.attributes.get("rack"));
+
+        // no resources
+        view = new OfferView(new Offer());
+        assertEquals(0, view.cpus, 0.001);
+        assertEquals(0, view.mem);
+        assertTrue(view.ports.isEmpty());
+    }
+}
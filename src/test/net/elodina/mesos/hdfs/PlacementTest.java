@@ -0,0 +1,72 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.api.Offer;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PlacementTest {
+    @Test
+    public void byName() {
+        assertSame(Placement.BEST_FIT, Placement.byName("best-fit"));
+        assertSame(Placement.FIRST_FIT, Placement.byName("first-fit"));
+
+        try { Placement.byName("unsupported"); fail(); }
+        catch (IllegalArgumentException e) { assertTrue(e.getMessage(), e.getMessage().contains("unsupported placement")); }
+    }
+
+    @Test
+    public void BestFit_fit() {
+        OfferView offer = new OfferView(new Offer("resources:[cpus:2; mem:2048]"));
+
+        Node node = new Node("0");
+        node.cpus = 2;
+        node.mem = 2048;
+        assertEquals(1, Placement.BestFit.fit(node, offer), 0.001);
+
+        node.cpus = 1;
+        node.mem = 512;
+        assertEquals(0.375, Placement.BestFit.fit(node, offer), 0.001);
+    }
+
+    @Test
+    public void BestFit_spread() {
+        OfferView offer = new OfferView(new Offer("hostname:slave0, attributes:[rack=r0]"));
+        Map<String, Collection<String>> others = new HashMap<>();
+        assertEquals(1, Placement.BestFit.spread(offer, others), 0.001);
+
+        // host is used by other node
+        others.put("hostname", Arrays.asList("slave0", "slave1"));
+        assertEquals(0.75, Placement.BestFit.spread(offer, others), 0.001);
+
+        // rack is used by 3 other nodes
+        others.put("rack", Arrays.asList("r0", "r0", "r0", "r1"));
+        assertEquals(0.375, Placement.BestFit.spread(offer, others), 0.001);
+    }
+
+    @Test
+    public void BestFit_sticky() {
+        OfferView offer = new OfferView(new Offer("hostname:slave0"));
+        Date now = new Date();
+
+        Node node = new Node("0");
+        assertEquals(0, Placement.BestFit.sticky(node, offer, now), 0.001);
+
+        // stopped on the same host
+        node.stickiness.registerStart("slave0");
+        node.stickiness.registerStop(now);
+        assertEquals(1, Placement.BestFit.sticky(node, offer, now), 0.001);
+
+        // other host
+        node.stickiness.registerStart("slave1");
+        node.stickiness.registerStop(now);
+        assertEquals(0, Placement.BestFit.sticky(node, offer, now), 0.001);
+
+        // stickiness expired
+        node.stickiness.registerStart("slave0");
+        node.stickiness.registerStop(new Date(now.getTime() - node.stickiness.period.ms()));
+        assertEquals(0, Placement.BestFit.sticky(node, offer, now), 0.001);
+    }
+}
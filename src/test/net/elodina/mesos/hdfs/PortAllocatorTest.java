@@ -0,0 +1,39 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.Range;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PortAllocatorTest {
+    @Test
+    public void init() {
+        // ranges are sorted & merged
+        PortAllocator allocator = new PortAllocator(Arrays.asList(new Range("10..20"), new Range("0..5"), new Range("6..8"), new Range("15..30")));
+        assertEquals(Arrays.asList(new Range("0..8"), new Range("10..30")), allocator.ranges());
+    }
+
+    @Test
+    public void allocate() {
+        PortAllocator allocator = new PortAllocator(Arrays.asList(new Range("0..100")));
+
+        assertEquals(10, allocator.allocate(10));
+        assertEquals(Arrays.asList(new Range("0..9"), new Range("11..100")), allocator.ranges());
+        assertEquals(-1, allocator.allocate(10));
+
+        assertEquals(0, allocator.allocate());
+        assertEquals(100, allocator.allocate(100));
+        assertEquals(Arrays.asList(new Range("1..9"), new Range("11..99")), allocator.ranges());
+
+        assertEquals(-1, allocator.allocate(200));
+        assertFalse(allocator.isFree(10));
+        assertTrue(allocator.isFree(50));
+
+        // exhausted
+        allocator = new PortAllocator(Arrays.asList(new Range("5..5")));
+        assertEquals(5, allocator.allocate());
+        assertEquals(-1, allocator.allocate());
+    }
+}
@@ -7,10 +7,7 @@ import net.elodina.mesos.util.Period;
 import net.elodina.mesos.util.Strings;
 import org.junit.Test;
 
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Date;
-import java.util.Map;
+import java.util.*;
 
 import static org.junit.Assert.*;
 
@@ -27,11 +24,12 @@ public class SchedulerTest extends HdfsMesosTestCase {
 
         // unexpected states
         for (Node.State state : Arrays.asList(Node.State.IDLE, Node.State.STOPPING)) {
-            node.state = state;
             node.initRuntime(new Offer("resources:[ports:0..10]"));
+            node.setState(state);
+            schedulerDriver.killedTasks.clear();
 
             Scheduler.$.onTaskStarted(node, status);
-            assertEquals(state, node.state);
+            assertEquals(state, node.getState());
 
             assertEquals(1, schedulerDriver.killedTasks.size());
             schedulerDriver.killedTasks.clear();
@@ -39,11 +37,11 @@ public class SchedulerTest extends HdfsMesosTestCase {
 
         // expected states
         for (Node.State state : Arrays.asList(Node.State.STARTING, Node.State.RUNNING, Node.State.RECONCILING)) {
-            node.state = state;
+            node.setState(state);
             node.initRuntime(new Offer("resources:[ports:0..10]"));
 
             Scheduler.$.onTaskStarted(node, status);
-            assertEquals(Node.State.RUNNING, node.state);
+            assertEquals(Node.State.RUNNING, node.getState());
             assertEquals(0, schedulerDriver.killedTasks.size());
         }
     }
@@ -58,15 +56,15 @@ public class SchedulerTest extends HdfsMesosTestCase {
 
         // idle
         Scheduler.$.onTaskStopped(node, status);
-        assertEquals(Node.State.IDLE, node.state);
+        assertEquals(Node.State.IDLE, node.getState());
 
         // expected states
         for (Node.State state : Arrays.asList(Node.State.STARTING, Node.State.RUNNING, Node.State.STOPPING, Node.State.RECONCILING)) {
-            node.state = state;
             node.initRuntime(new Offer("resources:[ports:0..10]"));
+            node.setState(state);
 
             Scheduler.$.onTaskStopped(node, status);
-            assertEquals(state == Node.State.STOPPING ? Node.State.IDLE : Node.State.STARTING, node.state);
+            assertEquals(state == Node.State.STOPPING ? Node.State.IDLE : Node.State.STARTING, node.getState());
             assertNull(node.runtime);
             assertNull(node.reservation);
         }
@@ -75,17 +73,15 @@ public class SchedulerTest extends HdfsMesosTestCase {
     @Test
     public void acceptOffer() {
         Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
-        nn.state = Node.State.RECONCILING;
-
-        // reconciling
-        assertEquals("reconciling", Scheduler.$.acceptOffer(new Offer()));
+        nn.setState(Node.State.RECONCILING);
 
         // nothing to start
-        nn.state = Node.State.IDLE;
+        assertEquals("nothing to start", Scheduler.$.acceptOffer(new Offer()));
+        nn.setState(Node.State.IDLE);
         assertEquals("nothing to start", Scheduler.$.acceptOffer(new Offer()));
 
         // low resources
-        nn.state = Node.State.STARTING;
+        nn.setState(Node.State.STARTING);
         nn.cpus = 2;
         assertEquals("node nn: cpus < 2.0", Scheduler.$.acceptOffer(new Offer("resources:[cpus:0.1]")));
 
@@ -95,15 +91,167 @@ public class SchedulerTest extends HdfsMesosTestCase {
         assertEquals(1, schedulerDriver.launchedTasks.size());
     }
 
+    @Test
+    public void acceptOffer_reconciling() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.externalFsUri = "hdfs://nn:8020";
+
+        Node dn0 = Nodes.addNode(new Node("dn0", Node.Type.DATANODE));
+        dn0.initRuntime(new Offer("slaveId:s0, resources:[cpus:0.5; mem:512; ports:0..2]"));
+        dn0.setState(Node.State.RECONCILING);
+
+        Node dn1 = Nodes.addNode(new Node("dn1", Node.Type.DATANODE));
+        dn1.setState(Node.State.STARTING);
+        dn1.cpus = 0.1;
+        dn1.mem = 128;
+
+        // resources of reconciling task are excluded on its slave
+        assertEquals("node dn1: cpus < 0.1", Scheduler.$.acceptOffer(new Offer("slaveId:s0, resources:[cpus:0.5; mem:1024; ports:0..5]")));
+
+        // other slaves are not affected
+        assertNull(Scheduler.$.acceptOffer(new Offer("slaveId:s1, resources:[cpus:0.5; mem:1024; ports:0..5]")));
+        assertEquals(Node.State.RECONCILING, dn0.getState());
+        assertNotNull(dn1.runtime);
+    }
+
+    @Test
+    public void acceptOffer_packing() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.externalFsUri = "hdfs://nn:8020";
+
+        Node dn0 = Nodes.addNode(new Node("dn0", Node.Type.DATANODE));
+        Node dn1 = Nodes.addNode(new Node("dn1", Node.Type.DATANODE));
+        Node dn2 = Nodes.addNode(new Node("dn2", Node.Type.DATANODE));
+
+        for (Node dn : Arrays.asList(dn0, dn1, dn2)) {
+            dn.setState(Node.State.STARTING);
+            dn.cpus = 1;
+            dn.mem = 1024;
+        }
+
+        // fits 2 of 3 nodes
+        assertNull(Scheduler.$.acceptOffer(new Offer("id:o, resources:[cpus:2.5;mem:4096;ports:0..10]")));
+        assertEquals(Arrays.asList("o"), schedulerDriver.acceptedOffers);
+        assertEquals(2, schedulerDriver.launchedTasks.size());
+
+        assertNotNull(dn0.runtime);
+        assertNotNull(dn1.runtime);
+        assertNull(dn2.runtime);
+
+        // no ports shared
+        Set<Integer> ports = new HashSet<>(dn0.reservation.ports.values());
+        ports.addAll(dn1.reservation.ports.values());
+        assertEquals(6, ports.size());
+    }
+
+    @Test
+    public void acceptOffer_placement() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.externalFsUri = "hdfs://nn:8020";
+
+        Node small = Nodes.addNode(new Node("small", Node.Type.DATANODE));
+        small.cpus = 0.5;
+        small.mem = 512;
+
+        Node big = Nodes.addNode(new Node("big", Node.Type.DATANODE));
+        big.cpus = 2;
+        big.mem = 4096;
+
+        // best-fit: big node takes the offer it fills
+        small.setState(Node.State.STARTING);
+        big.setState(Node.State.STARTING);
+        assertNull(Scheduler.$.acceptOffer(new Offer("resources:[cpus:2;mem:4096;ports:0..10]")));
+        assertNotNull(big.runtime);
+        assertNull(small.runtime);
+
+        // first-fit: small node is launched first and big one doesn't fit the rest
+        big.runtime = null;
+        Nodes.runtimeChanged(big);
+
+        Scheduler.$.config.placement = Placement.FIRST_FIT;
+        try {
+            assertNull(Scheduler.$.acceptOffer(new Offer("resources:[cpus:2;mem:4096;ports:0..10]")));
+            assertNotNull(small.runtime);
+            assertNull(big.runtime);
+        } finally {
+            Scheduler.$.config.placement = Placement.BEST_FIT;
+        }
+    }
+
+    @Test
+    public void acceptOffers() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.externalFsUri = "hdfs://nn:8020";
+
+        Node dn0 = Nodes.addNode(new Node("dn0", Node.Type.DATANODE));
+        Node dn1 = Nodes.addNode(new Node("dn1", Node.Type.DATANODE));
+        for (Node dn : Arrays.asList(dn0, dn1)) {
+            dn.setState(Node.State.STARTING);
+            dn.cpus = 1;
+            dn.mem = 1024;
+        }
+
+        // nodes are spread over slaves, small offer is declined
+        List<Offer> offers = Arrays.asList(
+            new Offer("id:o0, hostname:slave0, resources:[cpus:3;mem:3072;ports:0..10]"),
+            new Offer("id:o1, hostname:slave1, resources:[cpus:3;mem:3072;ports:0..10]"),
+            new Offer("id:o2, hostname:slave2, resources:[cpus:0.1;mem:3072;ports:0..10]")
+        );
+
+        List<String> reasons = Scheduler.$.acceptOffers(offers);
+        assertEquals(Arrays.asList(null, null, "node dn0: cpus < 1.0, node dn1: cpus < 1.0"), reasons);
+        assertEquals(new HashSet<>(Arrays.asList("slave0", "slave1")), new HashSet<>(Arrays.asList(dn0.runtime.hostname, dn1.runtime.hostname)));
+        assertEquals(Arrays.asList("o0", "o1"), schedulerDriver.acceptedOffers);
+
+        // nothing to start
+        assertEquals(Arrays.asList("nothing to start", "nothing to start"), Scheduler.$.acceptOffers(offers.subList(0, 2)));
+    }
+
+    @Test
+    public void acceptOffers_placedOnOtherOffer() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.externalFsUri = "hdfs://nn:8020";
+
+        Node dn = Nodes.addNode(new Node("dn", Node.Type.DATANODE));
+        dn.setState(Node.State.STARTING);
+
+        List<Offer> offers = Arrays.asList(
+            new Offer("id:o0, hostname:slave0, resources:[cpus:2;mem:2048;ports:0..10]"),
+            new Offer("id:o1, hostname:slave1, resources:[cpus:2;mem:2048;ports:0..10]")
+        );
+
+        assertEquals(Arrays.asList(null, "nodes are placed on other offers"), Scheduler.$.acceptOffers(offers));
+        assertEquals("slave0", dn.runtime.hostname);
+    }
+
+    @Test
+    public void decline_placedOnOtherOffer() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.externalFsUri = "hdfs://nn:8020";
+
+        Node dn = Nodes.addNode(new Node("dn", Node.Type.DATANODE));
+        dn.setState(Node.State.STARTING);
+
+        // filter of slave is not escalated
+        Scheduler.$.offers(Arrays.asList(
+            new Offer("id:o0, slaveId:s0, hostname:slave0, resources:[cpus:2;mem:2048;ports:0..10]"),
+            new Offer("id:o1, slaveId:s1, hostname:slave1, resources:[cpus:2;mem:2048;ports:0..10]")
+        ));
+
+        assertEquals(1, schedulerDriver.launchedTasks.size());
+        assertEquals(Arrays.asList(Scheduler.$.declineFilter().getDelay()), schedulerDriver.declineRefuses);
+        assertEquals(0, Scheduler.$.declineFilter().getDeclines("s1"));
+    }
+
     @Test
     public void launchTask() {
         Node node = Nodes.addNode(new Node("nn"));
-        node.state = Node.State.STARTING;
+        node.setState(Node.State.STARTING);
 
         Scheduler.$.launchTask(node, new Offer("resources:[ports:0..10]"));
         assertEquals(1, schedulerDriver.launchedTasks.size());
 
-        assertEquals(Node.State.STARTING, node.state);
+        assertEquals(Node.State.STARTING, node.getState());
         assertNotNull(node.runtime);
         assertNotNull(node.reservation);
     }
@@ -111,18 +259,113 @@ public class SchedulerTest extends HdfsMesosTestCase {
     @Test
     public void otherAttributes() {
         Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
-        nn.initRuntime(new Offer("hostname:nn, resources:[ports:0..10]"));
-        nn.runtime.attributes = Strings.parseMap("a=1,b=2");
+        nn.initRuntime(new Offer("hostname:nn, resources:[ports:0..10], attributes:[a=1,b=2]"));
 
         Node dn = Nodes.addNode(new Node("dn", Node.Type.DATANODE));
-        dn.initRuntime(new Offer("hostname:dn, resources:[ports:0..10]"));
-        dn.runtime.attributes = Strings.parseMap("a=3,b=4");
+        dn.initRuntime(new Offer("hostname:dn, resources:[ports:0..10], attributes:[a=1,b=4]"));
 
-        Map<String,Collection<String>> attrs = Scheduler.$.otherAttributes();
+        Nodes.Attributes attrs = Scheduler.$.otherAttributes();
         assertEquals(3, attrs.size());
-        assertEquals(Arrays.asList("nn", "dn"), attrs.get("hostname"));
-        assertEquals(Arrays.asList("1", "3"), attrs.get("a"));
-        assertEquals(Arrays.asList("2", "4"), attrs.get("b"));
+        assertEquals(Arrays.asList("nn", "dn"), new ArrayList<>(attrs.get("hostname")));
+        assertEquals(Arrays.asList("1", "1"), new ArrayList<>(attrs.get("a")));
+        assertEquals(Arrays.asList("2", "4"), new ArrayList<>(attrs.get("b")));
+        assertNull(attrs.get("c"));
+
+        // spread uses counts of index
+        OfferView offer = new OfferView(new Offer("hostname:nn, attributes:[a=1]"));
+        assertEquals((0.5 + 1.0 / 3) / 2, Placement.BestFit.spread(offer, attrs), 0.001);
+
+        // taken snapshot is unchanged
+        nn.setState(Node.State.RUNNING);
+        Scheduler.$.onTaskStopped(nn, new Task.Status("state:finished"));
+        assertEquals(Arrays.asList("nn", "dn"), new ArrayList<>(attrs.get("hostname")));
+
+        // stopped node is removed from index
+        attrs = Scheduler.$.otherAttributes();
+        assertEquals(Arrays.asList("dn"), new ArrayList<>(attrs.get("hostname")));
+        assertEquals(Arrays.asList("1"), new ArrayList<>(attrs.get("a")));
+        assertFalse(attrs.get("b").contains("2"));
+
+        // node placed after snapshot
+        nn.initRuntime(new Offer("hostname:nn, resources:[ports:0..10], attributes:[a=1,c=3]"));
+        attrs.add(nn);
+        assertEquals(Arrays.asList("dn", "nn"), new ArrayList<>(attrs.get("hostname")));
+        assertEquals(Arrays.asList("1", "1"), new ArrayList<>(attrs.get("a")));
+        assertEquals(Arrays.asList("3"), new ArrayList<>(attrs.get("c")));
+    }
+
+    @Test
+    public void suppress_revive_offers() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+
+        // nothing pending
+        Scheduler.$.offers(Arrays.asList(new Offer("id:o0, slaveId:s0, resources:[cpus:0.1]")));
+        assertEquals(Arrays.asList("o0"), schedulerDriver.declinedOffers);
+        assertTrue(schedulerDriver.suppressed);
+
+        // node starting
+        nn.setState(Node.State.STARTING);
+        assertFalse(schedulerDriver.suppressed);
+        assertEquals(1, schedulerDriver.revives);
+
+        Scheduler.$.offers(Arrays.asList(new Offer("id:o1, slaveId:s0, resources:[cpus:0.1]")));
+        assertFalse(schedulerDriver.suppressed);
+
+        // namenode running, declined offers are revived
+        nn.setState(Node.State.RUNNING);
+        assertEquals(2, schedulerDriver.revives);
+
+        // nothing pending
+        Scheduler.$.offers(Arrays.asList(new Offer("id:o2, slaveId:s0, resources:[cpus:0.1]")));
+        assertTrue(schedulerDriver.suppressed);
+    }
+
+    @Test
+    public void stopNode() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.initRuntime(new Offer("resources:[ports:0..10]"));
+        nn.setState(Node.State.RUNNING);
+
+        // killed on state change, not on next offer
+        nn.setState(Node.State.STOPPING);
+        assertEquals(Arrays.asList(nn.runtime.taskId), schedulerDriver.killedTasks);
+        assertTrue(nn.runtime.killSent);
+
+        // sent once
+        Scheduler.$.stopNode(nn);
+        Scheduler.$.offers(Arrays.asList(new Offer("id:o0, slaveId:s0, resources:[cpus:0.1]")));
+        assertEquals(1, schedulerDriver.killedTasks.size());
+
+        // no task: stopped at once, events are in order
+        Node dn = Nodes.addNode(new Node("dn", Node.Type.DATANODE));
+        dn.setState(Node.State.STARTING);
+
+        final List<String> events = new ArrayList<>();
+        Nodes.Listener listener = new Nodes.Listener() {
+            public void onEvent(Nodes.Event event) { events.add(event.old + "->" + event.state); }
+        };
+        Nodes.addListener(listener);
+        try { dn.setState(Node.State.STOPPING); }
+        finally { Nodes.removeListener(listener); }
+
+        assertEquals(Node.State.IDLE, dn.getState());
+        assertEquals(Arrays.asList("STARTING->STOPPING", "STOPPING->IDLE"), events);
+    }
+
+    @Test
+    public void decline_reconciling() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.initRuntime(new Offer("resources:[ports:0..10]"));
+        nn.setState(Node.State.RUNNING);
+        Scheduler.$.reconciler().start(schedulerDriver, new Date());
+
+        // filter is not escalated while reconciling
+        Period delay = Scheduler.$.declineFilter().getDelay();
+        for (int i = 0; i < 3; i++)
+            Scheduler.$.offers(Arrays.asList(new Offer("id:o" + i + ", slaveId:s0, resources:[cpus:0.1]")));
+
+        assertEquals(Arrays.asList(delay, delay, delay), schedulerDriver.declineRefuses);
+        assertEquals(0, Scheduler.$.declineFilter().getDeclines("s0"));
     }
 
     @Test
@@ -142,6 +385,30 @@ public class SchedulerTest extends HdfsMesosTestCase {
         assertFalse(schedulerDriver.stopped);
     }
 
+    // DeclineFilter
+    @Test
+    public void DeclineFilter_refuse() {
+        Scheduler.DeclineFilter filter = new Scheduler.DeclineFilter(new Period("1s"), new Period("5s"));
+        assertTrue(filter.isEmpty());
+
+        assertEquals(new Period("1s"), filter.refuse("s0"));
+        assertEquals(new Period("2s"), filter.refuse("s0"));
+        assertEquals(new Period("4s"), filter.refuse("s0"));
+        assertEquals(new Period("5s"), filter.refuse("s0"));
+        assertEquals(4, filter.getDeclines("s0"));
+
+        // other slave
+        assertEquals(new Period("1s"), filter.refuse("s1"));
+
+        // reset
+        filter.reset("s0");
+        assertEquals(0, filter.getDeclines("s0"));
+        assertEquals(1, filter.getDeclines("s1"));
+
+        filter.reset();
+        assertTrue(filter.isEmpty());
+    }
+
     // Reconciler
     @Test
     public void Reconciler_isActive() {
@@ -151,7 +418,7 @@ public class SchedulerTest extends HdfsMesosTestCase {
 
         // reconciling
         Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
-        nn.state = Node.State.RECONCILING;
+        nn.setState(Node.State.RECONCILING);
         assertTrue(reconciler.isActive());
     }
 
@@ -176,8 +443,8 @@ public class SchedulerTest extends HdfsMesosTestCase {
         assertEquals(1, schedulerDriver.reconciledTasks.size());
         assertEquals("", schedulerDriver.reconciledTasks.get(0));
 
-        assertEquals(Node.State.RECONCILING, nn.state);
-        assertEquals(Node.State.RECONCILING, dn.state);
+        assertEquals(Node.State.RECONCILING, nn.getState());
+        assertEquals(Node.State.RECONCILING, dn.getState());
     }
 
     @Test
@@ -186,11 +453,11 @@ public class SchedulerTest extends HdfsMesosTestCase {
 
         Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
         nn.initRuntime(new Offer("resources:[ports:0..10]"));
-        nn.state = Node.State.RECONCILING;
+        nn.setState(Node.State.RECONCILING);
 
         Node dn = Nodes.addNode(new Node("dn", Node.Type.DATANODE));
         dn.initRuntime(new Offer("resources:[ports:0..10]"));
-        dn.state = Node.State.RECONCILING;
+        dn.setState(Node.State.RECONCILING);
 
         Scheduler.Reconciler reconciler = new Scheduler.Reconciler(new Period("0"), 2);
 
@@ -221,12 +488,71 @@ public class SchedulerTest extends HdfsMesosTestCase {
         assertEquals(0, reconciler.getTries());
         assertEquals(null, reconciler.getLastTry());
 
-        assertEquals(Node.State.STARTING, nn.state);
+        assertEquals(Node.State.STARTING, nn.getState());
         assertEquals(null, nn.runtime);
 
-        assertEquals(Node.State.STARTING, dn.state);
+        assertEquals(Node.State.STARTING, dn.getState());
         assertEquals(null, dn.runtime);
 
         assertEquals(0, schedulerDriver.reconciledTasks.size());
     }
+
+    @Test
+    public void Reconciler_proceed_batches() {
+        Date now = new Date();
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Node node = Nodes.addNode(new Node("n" + i, i == 0 ? Node.Type.NAMENODE : Node.Type.DATANODE));
+            node.initRuntime(new Offer("resources:[ports:0..10]"));
+            nodes.add(node);
+        }
+
+        Scheduler.Reconciler reconciler = new Scheduler.Reconciler(new Period("0"), 3);
+        reconciler.setBatchSize(2);
+        reconciler.start(schedulerDriver, now);
+
+        final List<Integer> batches = new ArrayList<>();
+        reconciler.proceed(new TestSchedulerDriver() {
+            public void reconcileTasks(List<String> ids) { batches.add(ids.size()); }
+        }, now);
+        assertEquals(Arrays.asList(2, 2, 1), batches);
+
+        // finishes early once all tasks reported
+        for (Node node : nodes) node.setState(Node.State.RUNNING);
+        reconciler.checkFinished(now);
+        assertEquals(0, reconciler.getTries());
+        assertNull(reconciler.getLastTry());
+        assertEquals(false, reconciler.toJson().get("active"));
+    }
+
+    @Test
+    public void Reconciler_currentDelay() {
+        Scheduler.Reconciler reconciler = new Scheduler.Reconciler(new Period("10s"), 10);
+        reconciler.setMaxDelay(new Period("1m"));
+        reconciler.setJitter(0);
+
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.initRuntime(new Offer("resources:[ports:0..10]"));
+        reconciler.start(schedulerDriver, new Date(0));
+        assertEquals(10000, reconciler.getNextTry().getTime());
+        assertEquals(10000, reconciler.currentDelay());
+
+        // backoff
+        reconciler.proceed(schedulerDriver, new Date(10000));
+        assertEquals(20000, reconciler.currentDelay());
+        assertEquals(30000, reconciler.getNextTry().getTime());
+
+        // not yet
+        reconciler.proceed(schedulerDriver, new Date(20000));
+        assertEquals(2, reconciler.getTries());
+
+        // max delay
+        for (int i = 0; i < 3; i++) reconciler.proceed(schedulerDriver, reconciler.getNextTry());
+        assertEquals(60000, reconciler.currentDelay());
+
+        // jitter
+        reconciler.setJitter(0.5);
+        long delay = reconciler.currentDelay();
+        assertTrue("" + delay, delay >= 30000 && delay <= 90000);
+    }
 }
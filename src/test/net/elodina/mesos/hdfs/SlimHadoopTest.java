@@ -0,0 +1,88 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.IO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SlimHadoopTest {
+    private File dir;
+
+    @Before
+    public void before() throws IOException {
+        dir = Files.createTempDirectory(SlimHadoopTest.class.getSimpleName()).toFile();
+    }
+
+    @After
+    public void after() throws IOException {
+        IO.delete(dir);
+    }
+
+    @Test
+    public void build() throws IOException, InterruptedException {
+        File hadoopDir = new File(dir, "dist/hadoop-2.7.2");
+        List<String> kept = Arrays.asList(
+            "bin/hdfs", "sbin/start-dfs.sh", "etc/hadoop/core-site.xml", "libexec/hadoop-config.sh", "lib/native/libhadoop.so",
+            "share/hadoop/common/hadoop-common-2.7.2.jar", "share/hadoop/common/lib/guava.jar", "share/hadoop/hdfs/hadoop-hdfs-2.7.2.jar"
+        );
+        List<String> removed = Arrays.asList(
+            "README.txt", "share/doc/index.html", "share/hadoop/yarn/hadoop-yarn.jar", "share/hadoop/mapreduce/hadoop-mapreduce.jar",
+            "share/hadoop/tools/lib/hadoop-distcp.jar", "share/hadoop/hdfs/sources/hadoop-hdfs-sources.jar", "share/hadoop/common/jdiff/api.xml"
+        );
+
+        for (String path : kept) write(new File(hadoopDir, path));
+        for (String path : removed) write(new File(hadoopDir, path));
+
+        File archive = new File(dir, "hadoop-2.7.2.tar.gz");
+        exec(new File(dir, "dist"), "tar", "-czf", archive.getAbsolutePath(), "hadoop-2.7.2");
+
+        File slim = SlimHadoop.build(archive, new File(dir, "slim"));
+        assertEquals(new File(dir, "slim/hadoop-2.7.2.tar.gz"), slim);
+        assertFalse(new File(dir, "slim/tmp").exists());
+
+        File extracted = new File(dir, "extracted");
+        assertTrue(extracted.mkdirs());
+        exec(extracted, "tar", "-xzf", slim.getAbsolutePath());
+
+        for (String path : kept) assertTrue(path, new File(extracted, "hadoop-2.7.2/" + path).isFile());
+        for (String path : removed) assertFalse(path, new File(extracted, "hadoop-2.7.2/" + path).exists());
+
+        // up to date: reused
+        long lastModified = slim.lastModified();
+        assertEquals(slim, SlimHadoop.build(archive, new File(dir, "slim")));
+        assertEquals(lastModified, slim.lastModified());
+    }
+
+    @Test
+    public void prune_1x() throws IOException {
+        File hadoopDir = new File(dir, "hadoop-1.2.1");
+        for (String path : Arrays.asList("bin/hadoop", "conf/core-site.xml", "lib/jetty.jar", "webapps/hdfs/index.html", "hadoop-core-1.2.1.jar",
+            "hadoop-examples-1.2.1.jar", "docs/index.html", "src/core/Core.java", "contrib/streaming/streaming.jar", "lib/jdiff/api.xml"))
+            write(new File(hadoopDir, path));
+
+        SlimHadoop.prune(hadoopDir);
+
+        for (String path : Arrays.asList("bin/hadoop", "conf/core-site.xml", "lib/jetty.jar", "webapps/hdfs/index.html", "hadoop-core-1.2.1.jar"))
+            assertTrue(path, new File(hadoopDir, path).isFile());
+
+        for (String path : Arrays.asList("hadoop-examples-1.2.1.jar", "docs", "src", "contrib", "lib/jdiff"))
+            assertFalse(path, new File(hadoopDir, path).exists());
+    }
+
+    private static void write(File file) throws IOException {
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        IO.writeFile(file, file.getName());
+    }
+
+    private static void exec(File dir, String... cmd) throws IOException, InterruptedException {
+        assertEquals(0, new ProcessBuilder(cmd).directory(dir).start().waitFor());
+    }
+}
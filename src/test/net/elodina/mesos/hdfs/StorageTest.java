@@ -0,0 +1,240 @@
+package net.elodina.mesos.hdfs;
+
+import org.I0Itec.zkclient.ZkClient;
+import org.I0Itec.zkclient.serialize.BytesPushThroughSerializer;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StorageTest {
+    private File file;
+    private Storage storage;
+
+    @Before
+    public void before() throws IOException {
+        Nodes.reset();
+        file = Files.createTempFile(StorageTest.class.getSimpleName(), null).toFile();
+        assertTrue(file.delete());
+        storage = Storage.file(file);
+    }
+
+    @After
+    public void after() {
+        storage.clear();
+        Nodes.reset();
+    }
+
+    @Test
+    public void FileStorage_journal() throws IOException {
+        Nodes.frameworkId = "f0";
+        Node n0 = Nodes.addNode(new Node("n0"));
+        Node n1 = Nodes.addNode(new Node("n1", Node.Type.DATANODE));
+        storage.save();
+
+        File journal = new File(file.getPath() + ".journal");
+        assertFalse(journal.exists());
+
+        // changes are appended to journal
+        n1.cpus = 2;
+        Nodes.markDirty(n1);
+        Nodes.removeNode(n0);
+        Node n2 = Nodes.addNode(new Node("n2", Node.Type.DATANODE));
+        storage.save(Arrays.asList(n1, n2), Collections.singletonList("n0"));
+        assertTrue(journal.exists());
+
+        // torn record is ignored
+        try (FileWriter writer = new FileWriter(journal, true)) { writer.write("{\"nodes\":[{\"id\":"); }
+
+        Nodes.reset();
+        storage.load();
+        assertEquals("f0", Nodes.frameworkId);
+        assertEquals(Arrays.asList(n1, n2), Nodes.getNodes());
+        assertEquals(2, Nodes.getNode("n1").cpus, 0.001);
+
+        // torn journal is compacted on load
+        assertFalse(journal.exists());
+
+        // journal is compacted to snapshot after 100 records
+        for (int i = 0; i < 100; i++) storage.save(Collections.<Node>emptyList(), Collections.<String>emptyList());
+        assertTrue(journal.exists());
+        storage.save(Collections.<Node>emptyList(), Collections.<String>emptyList());
+        assertFalse(journal.exists());
+
+        Nodes.reset();
+        storage.load();
+        assertEquals(Arrays.asList(n1, n2), Nodes.getNodes());
+    }
+
+    @Test
+    public void FileStorage_staleJournal() throws IOException {
+        Node n0 = Nodes.addNode(new Node("n0"));
+        storage.save();
+
+        Nodes.removeNode(n0);
+        storage.save(Collections.<Node>emptyList(), Collections.singletonList("n0"));
+        File journal = new File(file.getPath() + ".journal");
+        byte[] stale = Files.readAllBytes(journal.toPath());
+
+        // journal left by crash after snapshot rename is not replayed
+        Nodes.addNode(new Node("n0"));
+        storage.save();
+        Files.write(journal.toPath(), stale);
+
+        Nodes.reset();
+        storage.load();
+        assertEquals(Arrays.asList(n0), Nodes.getNodes());
+        assertFalse(journal.exists());
+
+        // records of current generation are replayed
+        Nodes.removeNode(Nodes.getNode("n0"));
+        storage.save(Collections.<Node>emptyList(), Collections.singletonList("n0"));
+
+        Nodes.reset();
+        storage.load();
+        assertTrue(Nodes.getNodes().isEmpty());
+    }
+
+    @Test
+    public void FileStorage_binary() throws IOException {
+        Nodes.frameworkId = "f0";
+        Node n0 = Nodes.addNode(new Node("n0"));
+        Node n1 = Nodes.addNode(new Node("n1", Node.Type.DATANODE));
+        storage.save();
+
+        // json state is read by binary storage, journal is switched to binary
+        storage = Storage.byUri("file+binary:" + file);
+        assertSame(Codec.BINARY, storage.codec());
+        storage.load();
+
+        n1 = Nodes.getNode("n1");
+        n1.cpus = 2;
+        Nodes.markDirty(n1);
+        storage.save(Collections.singletonList(n1), Collections.<String>emptyList());
+        Nodes.removeNode(Nodes.getNode("n0"));
+        storage.save(Collections.<Node>emptyList(), Collections.singletonList("n0"));
+        assertSame(Codec.BINARY, Codec.of(Files.readAllBytes(new File(file + ".journal").toPath())));
+
+        // snapshot switches codec on compaction
+        storage.save();
+        assertSame(Codec.BINARY, Codec.of(Files.readAllBytes(file.toPath())));
+
+        Nodes.reset();
+        storage.load();
+        assertEquals("f0", Nodes.frameworkId);
+        assertEquals(Arrays.asList(n1), Nodes.getNodes());
+        assertEquals(2, Nodes.getNode("n1").cpus, 0.001);
+    }
+
+    @Test
+    public void Codec_of() throws IOException {
+        assertSame(Codec.JSON, Codec.of("{}".getBytes()));
+        assertSame(Codec.BINARY, Codec.of(Codec.BINARY.encode(new Node("n0"))));
+
+        // binary record of length 123 ('{') is marked as binary
+        String frameworkId = new String(new char[121]).replace('\0', 'f');
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Codec.BINARY.writeRecord(out, new Codec.State(frameworkId, Collections.<Node>emptyList()));
+        byte[] bytes = out.toByteArray();
+        assertEquals('{', bytes[Codec.MAGIC.length]);
+
+        assertSame(Codec.BINARY, Codec.of(bytes));
+        assertEquals(frameworkId, Codec.BINARY.readRecords(bytes).get(0).frameworkId);
+
+        try { Codec.of(new byte[] {'{' + 1}); fail(); }
+        catch (IllegalArgumentException e) { assertTrue(e.getMessage(), e.getMessage().contains("unknown encoding")); }
+    }
+
+    @Test
+    public void ZkStorage() throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory(StorageTest.class.getSimpleName()).toFile();
+        ZooKeeperServer server = new ZooKeeperServer(dir, dir, 2000);
+        NIOServerCnxnFactory factory = new NIOServerCnxnFactory();
+        factory.configure(new InetSocketAddress("localhost", 0), 10);
+        factory.startup(server);
+
+        String connect = "localhost:" + factory.getLocalPort();
+        Storage zk = Storage.zk(connect + "/hdfs-mesos");
+        ZkClient client = new ZkClient(connect, 30000, 30000, new BytesPushThroughSerializer());
+        try {
+            Nodes.frameworkId = "f0";
+            Node n0 = Nodes.addNode(new Node("n0"));
+            Node n1 = Nodes.addNode(new Node("n1", Node.Type.DATANODE));
+            zk.save();
+            assertEquals(Arrays.asList("n0", "n1"), sorted(client.getChildren("/hdfs-mesos/nodes")));
+
+            // only changed nodes are written
+            n1.cpus = 2;
+            Nodes.markDirty(n1);
+            Nodes.removeNode(n0);
+            Node n2 = Nodes.addNode(new Node("n2", Node.Type.DATANODE));
+            zk.save(Arrays.asList(n1, n2), Collections.singletonList("n0"));
+            assertEquals(Arrays.asList("n1", "n2"), sorted(client.getChildren("/hdfs-mesos/nodes")));
+
+            Nodes.reset();
+            zk.load();
+            assertEquals("f0", Nodes.frameworkId);
+            assertEquals(Arrays.asList(n1, n2), Nodes.getNodes());
+            assertEquals(2, Nodes.getNode("n1").cpus, 0.001);
+
+            // concurrent write of node only, metadata is unchanged
+            Storage other = Storage.zk(connect + "/hdfs-mesos");
+            try {
+                other.load();
+                other.save(Collections.singletonList(Nodes.getNode("n2")), Collections.<String>emptyList());
+            } finally {
+                other.close();
+            }
+            try { zk.save(Collections.singletonList(Nodes.getNode("n1")), Collections.<String>emptyList()); fail(); }
+            catch (IllegalStateException e) { assertTrue(e.getMessage(), e.getMessage().contains("concurrently modified")); }
+            zk.load();
+
+            // concurrent modification
+            client.writeData("/hdfs-mesos", "{}".getBytes());
+            Nodes.removeNode(Nodes.getNode("n1"));
+            try { zk.save(Collections.<Node>emptyList(), Collections.singletonList("n1")); fail(); }
+            catch (IllegalStateException e) { assertTrue(e.getMessage(), e.getMessage().contains("concurrently modified")); }
+
+            // keeps failing until reloaded
+            try { zk.save(); fail(); }
+            catch (IllegalStateException e) { assertTrue(e.getMessage(), e.getMessage().contains("reload is required")); }
+            assertEquals("{}", new String(client.<byte[]>readData("/hdfs-mesos")));
+
+            client.writeData("/hdfs-mesos", "{\"frameworkId\":\"f0\",\"nodeIds\":[\"n2\"]}".getBytes());
+            zk.load();
+            assertEquals(Arrays.asList(n2), Nodes.getNodes());
+            zk.save();
+            assertEquals(Arrays.asList("n2"), client.getChildren("/hdfs-mesos/nodes"));
+
+            // legacy single znode layout
+            zk.clear();
+            client.createPersistent("/hdfs-mesos", ("" + Nodes.toJson()).getBytes());
+            Nodes.reset();
+            zk.load();
+            assertEquals(Arrays.asList(n2), Nodes.getNodes());
+        } finally {
+            client.close();
+            zk.close();
+            factory.shutdown();
+            server.shutdown();
+        }
+    }
+
+    private static List<String> sorted(List<String> list) {
+        Collections.sort(list);
+        return list;
+    }
+}